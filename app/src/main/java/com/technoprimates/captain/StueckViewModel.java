@@ -2,23 +2,57 @@ package com.technoprimates.captain;
 
 import android.app.Application;
 import android.content.SharedPreferences;
-import android.text.format.DateFormat;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MediatorLiveData;
+import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.Observer;
+import androidx.lifecycle.Transformations;
+import androidx.paging.Pager;
+import androidx.paging.PagingConfig;
+import androidx.paging.PagingData;
+import androidx.paging.PagingLiveData;
 import androidx.preference.PreferenceManager;
 
+import com.technoprimates.captain.db.CatalogueSnapshot;
+import com.technoprimates.captain.db.ImportReport;
 import com.technoprimates.captain.db.Profile;
 import com.technoprimates.captain.db.Stueck;
+import com.technoprimates.captain.db.StueckExporter;
+import com.technoprimates.captain.db.StueckImporter;
 import com.technoprimates.captain.db.StueckRepository;
-
-import java.util.ArrayList;
-import java.util.List;
+import com.technoprimates.captain.draw.DrawPool;
+import com.technoprimates.captain.draw.DrawStateStore;
+import com.technoprimates.captain.draw.DrawStrategy;
+import com.technoprimates.captain.draw.PoolDelta;
+import com.technoprimates.captain.draw.WeightedDrawPool;
+
+import java.io.File;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 
 /**
  * An application-scoped ViewModel managing Stueck objects
+ *
+ * No list of the Stücks is held in memory : the list fragment pages through the database, the pool of next
+ * names only holds the ids and weights of the profiled Stücks, taken from the profile buckets and from the weights
+ * other than the default one, and is filtered again each time the database emits a new count of Stücks.
+ * The drawn names are read by id, and the names are checked for duplicates in the database.
  */
 public class StueckViewModel extends AndroidViewModel {
 
@@ -30,20 +64,95 @@ public class StueckViewModel extends AndroidViewModel {
     public static final int NO_STUECK_NAME = 103;
     public static final int STUECK_NAME_ALREADY_EXISTS = 104;
     public static final int INVALID_STUECK_BOOLEANS = 105;
+    public static final int INVALID_STUECK_WEIGHT = 106;
+
+    // Draw modes for the next names
+    // Each name is drawn once until the pool is rebuilt
+    public static final int DRAW_MODE_UNIFORM = 0;
+    // Names are drawn with replacement, with a probability proportional to their weight
+    public static final int DRAW_MODE_WEIGHTED = 1;
+    // Names are drawn with replacement, excluding the last NO_REPEAT_WINDOW names drawn
+    public static final int DRAW_MODE_NO_REPEAT = 2;
+
+    // Number of last drawn names excluded in DRAW_MODE_NO_REPEAT
+    public static final int NO_REPEAT_WINDOW = 20;
+
+    // Sort modes of the paged list, when no text is searched
+    // By database id, i.e. by insertion order
+    public static final int SORT_BY_ID = 0;
+    // By name, ignoring case
+    public static final int SORT_BY_NAME = 1;
+    // By update day, the most recent first
+    public static final int SORT_BY_DATE = 2;
+
+    // Number of Stücks loaded at once in the paged list
+    private static final int PAGE_SIZE = 50;
+
+    // File of the persisted draw state, in the app files directory
+    private static final String DRAW_STATE_FILE = "draw_state.bin";
+
+    // File of the catalogue snapshot, in the app files directory
+    private static final String CATALOGUE_SNAPSHOT_FILE = "catalogue.snap";
+
+    // Delay without change of the table before its snapshot is written, each change restarting the delay
+    private static final long SNAPSHOT_DELAY_MS = 2000;
 
     // Stueck repository
     private final StueckRepository repository;
 
-    // A LiveData list of all Stücks, to be observed to update the RecylerView
-    private final LiveData<List<Stueck>> allStuecksList;
+    // The number of Stücks, emitted by the database after each write to the table. Only its emissions are used,
+    // each one filtering the profiled Stücks again
+    private final LiveData<Integer> stueckCount;
+
+    // Counts the emissions of stueckCount, 0 until the table is read. Only accessed on the main thread
+    private int tableVersion;
+
+    // Observes stueckCount while the ViewModel lives, so that the pool follows the writes to the table
+    private final Observer<Integer> tableObserver = count -> {
+        tableVersion++;
+        requestProfiledIds();
+    };
 
-    // A list of Stücks matching the current Profile,
-    // This is the list displayed in the recyclerview
-    // and used when requesting profiled Stücks
-    private final List<Stueck> profiledStuecksList;
+    // Background thread filtering the Stücks and reading the drawn names, and the main thread handler publishing the results
+    private final ExecutorService filterExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
-    // TODO
-    private final List<String> nextNames = new ArrayList<>();
+    // Key of the last requested filtering : the table version and the profile mask.
+    // A request with the same key is not computed again
+    private volatile int filterKeyVersion;
+    private volatile int filterKeyMask;
+
+    // The pool of the profiled Stücks ids drawn as next names, according to the draw mode. Names are resolved when drawn.
+    // The pool is updated incrementally when the profiled Stücks change, keeping the draw state
+    private DrawStrategy nextNames;
+    private int drawMode;
+
+    // The ids drawn in uniform mode, persisted to survive the death of the process.
+    // The stored draws are restored once, when the first profiled Stücks are published
+    private final DrawStateStore drawStateStore;
+    private boolean drawStateRestorePending = true;
+
+    // The mapped catalogue snapshot, filling the pool and giving the drawn names until the table is read, then released
+    private volatile CatalogueSnapshot catalogueSnapshot;
+    private final File snapshotFile;
+
+    // Writes the snapshot by walking the table, once the table stops changing. The cancelled writes
+    // are removed from its queue
+    private final ScheduledThreadPoolExecutor snapshotWriter = new ScheduledThreadPoolExecutor(1);
+
+    // The write requested by the last table change, cancelled by the next change. Only accessed by the filter thread
+    private ScheduledFuture<?> pendingSnapshot;
+
+    // The number of names left to draw, emitted each time the pool changes
+    private final MutableLiveData<Integer> nextNamesCount = new MutableLiveData<>();
+
+    // The ids and weights of the profiled Stücks, ordered by id. Set on the main thread
+    private int[] profiledIds = new int[0];
+    private int[] profiledWeights = new int[0];
+
+    // The ids and weights of the last published profiled Stücks, base of the next pool delta. Only accessed by the filter thread
+    private int[] publishedIds = new int[0];
+    private int[] publishedWeights = new int[0];
 
 
     // The nature of the next action to be processed
@@ -53,7 +162,33 @@ public class StueckViewModel extends AndroidViewModel {
     private Stueck currentStueck;
 
     // Current profile for stuecks
-    private final Profile currentProfile;
+    private Profile currentProfile;
+
+    // The current profile compiled for filtering, rebuilt when the profile changes
+    private Profile.Matcher profileMatcher;
+
+    // The current profile, emitted each time the profile changes
+    private final MutableLiveData<Profile> profileLiveData;
+
+    // The state of the running or last import, and the flag cancelling the running import
+    private final MutableLiveData<ImportReport> importReport = new MutableLiveData<>();
+    private volatile boolean importRunning;
+    private AtomicBoolean importCancelled;
+
+    // The number of records written by the last export, or StueckExporter.EXPORT_FAILED
+    private final MutableLiveData<Integer> exportResult = new MutableLiveData<>();
+
+    // The text searched in the list, empty for no search
+    private final MutableLiveData<String> searchText = new MutableLiveData<>("");
+
+    // The sort mode of the paged list, saved in shared preferences
+    private final MutableLiveData<Integer> sortMode;
+
+    // Emits each time a parameter of the paged list changes : profile or search text
+    private final MediatorLiveData<Object> pagedListParams = new MediatorLiveData<>();
+
+    // The paged list of Stücks matching the current profile, displayed in the recyclerview
+    private final LiveData<PagingData<Stueck>> pagedStuecks;
 
     /**
      * Constructor of the ViewModel managing <code>Stueck</code> objects.
@@ -66,13 +201,35 @@ public class StueckViewModel extends AndroidViewModel {
          If no values are stored, or if the stored values are not ok, the current Profile is set to a default Profile.
          */
         SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(application);
-        currentProfile = new Profile(sharedPref.getString("Profile", null));
-
-        // Initialize the Stueck repository and the list of stuecks matching the current profile
+        currentProfile = Profile.of(sharedPref.getString("Profile", null));
+        profileMatcher = currentProfile.compile();
+        drawMode = sharedPref.getInt("DrawMode", DRAW_MODE_UNIFORM);
+        nextNames = newDrawStrategy(drawMode);
+        drawStateStore = new DrawStateStore(new File(application.getFilesDir(), DRAW_STATE_FILE));
+        // loaded before any filtering, on the filter thread
+        filterExecutor.execute(drawStateStore::load);
+        // mapped before the database is read, the pool is filled from the snapshot until the table is read
+        snapshotFile = new File(application.getFilesDir(), CATALOGUE_SNAPSHOT_FILE);
+        filterExecutor.execute(() -> catalogueSnapshot = CatalogueSnapshot.map(snapshotFile));
+        snapshotWriter.setRemoveOnCancelPolicy(true);
+
+        // Initialize the Stueck repository
         repository = new StueckRepository(application);
-        allStuecksList = repository.getAllStuecksList();
-        profiledStuecksList = new ArrayList<>();
-        //updateProfiledStuecksList();
+        stueckCount = repository.getStueckCount();
+
+        // A new Pager is built for each profile or search text, its PagingData is cached to survive configuration changes
+        profileLiveData = new MutableLiveData<>(currentProfile);
+        pagedListParams.addSource(profileLiveData, pagedListParams::setValue);
+        pagedListParams.addSource(searchText, pagedListParams::setValue);
+        sortMode = new MutableLiveData<>(sharedPref.getInt("SortMode", SORT_BY_ID));
+        pagedListParams.addSource(sortMode, pagedListParams::setValue);
+        pagedStuecks = PagingLiveData.cachedIn(
+                Transformations.switchMap(pagedListParams, params -> PagingLiveData.getLiveData(newPager())),
+                this);
+
+        // The profiled Stücks are filtered again when the table or the profile change
+        stueckCount.observeForever(tableObserver);
+        requestProfiledIds();
 
         // Initalize current Stueck
         currentStueck = null;
@@ -80,20 +237,22 @@ public class StueckViewModel extends AndroidViewModel {
 
     /**
      * Change the current profile.
-     * @param profileString The new profile stored in a String
-     * @return false if the provided string does not define a valid Profile, in which case the current Profile is left unchanged
+     * @param profile The new profile
+     * @return false if the provided Profile is not valid, in which case the current Profile is left unchanged
      */
-    public boolean setProfile(String profileString) {
-        if (Profile.isValidProfileString(profileString)) {
-            currentProfile.feedFromString(profileString);
+    public boolean setProfile(@NonNull Profile profile) {
+        if (profile.isValid()) {
+            currentProfile = profile;
+            if (currentProfile.getMask() != profileMatcher.getMask()) profileMatcher = currentProfile.compile();
             // save the string defining the new profile in shared preferences
             SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(getApplication());
             SharedPreferences.Editor editor = sharedPref.edit();
-            editor.putString("Profile", profileString);
+            editor.putString("Profile", profile.toString());
             editor.apply();
 
-            // update profiled stuecks list
-            updateProfiledStuecksList();
+            // update the pool of next names and the paged list
+            profileLiveData.setValue(currentProfile);
+            requestProfiledIds();
 
             return true;
         } else {
@@ -103,25 +262,156 @@ public class StueckViewModel extends AndroidViewModel {
 
 
     /*
-    Rebuild the profiled Stuecks list from the livedata list of all stücks, selecting items matching current Profile
-    And rebuild the list of next stüecks names
-    Call this when Profile is changed or when livedata changes
-     */
-    public void updateProfiledStuecksList() {
-        profiledStuecksList.clear();
-        nextNames.clear();
-        // livedata list must have been set
-        assert (allStuecksList.getValue() != null);
-        for (int i=0; i < allStuecksList.getValue().size(); i++) {
-            if (getProfile().matches(allStuecksList.getValue().get(i).getProfile())) {
-                profiledStuecksList.add(allStuecksList.getValue().get(i));
-                nextNames.add(allStuecksList.getValue().get(i).getName());
+    Build a Pager for the current parameters of the paged list
+     */
+    private Pager<Integer, Stueck> newPager() {
+        Profile profile = profileLiveData.getValue();
+        String search = searchText.getValue();
+        assert (profile != null);
+        if ((search != null) && !search.isEmpty())
+            return new Pager<>(new PagingConfig(PAGE_SIZE), () -> repository.pageStuecksByFullText(profile, search));
+        switch (getSortMode()) {
+            case SORT_BY_NAME:
+                return new Pager<>(new PagingConfig(PAGE_SIZE), () -> repository.pageStuecksByName(profile));
+            case SORT_BY_DATE:
+                return new Pager<>(new PagingConfig(PAGE_SIZE), () -> repository.pageStuecksByRecency(profile));
+            case SORT_BY_ID:
+            default:
+                return new Pager<>(new PagingConfig(PAGE_SIZE), () -> repository.pageStuecksMatching(profile));
+        }
+    }
+
+    /**
+     * Set the text searched in the paged list. Only the Stücks whose name contains words starting with
+     * the words of this text, ignoring case and accents, are listed, most relevant first
+     * @param text  The start of the names to list, empty to list all Stücks
+     */
+    public void setSearchText(@NonNull String text) {
+        if (!text.equals(searchText.getValue())) searchText.setValue(text);
+    }
+
+    /**
+     * Change the order of the paged list when no text is searched, searched Stücks being listed by relevance.
+     * The sorting is done by the database, and the mode is saved in shared preferences
+     * @param mode  SORT_BY_ID, SORT_BY_NAME or SORT_BY_DATE
+     */
+    public void setSortMode(int mode) {
+        if (mode == getSortMode()) return;
+        sortMode.setValue(mode);
+        SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(getApplication());
+        sharedPref.edit().putInt("SortMode", mode).apply();
+    }
+
+    /**
+     * @return  The current sort mode of the paged list
+     */
+    public int getSortMode() {
+        Integer mode = sortMode.getValue();
+        return (mode == null) ? SORT_BY_ID : mode;
+    }
+
+    /*
+    Request the ids and weights of the Stücks matching the current Profile, followed by an update of the pool of
+    next names. Called on the main thread when the Profile is changed or when the table changes. The filtering runs
+    in the background, and is skipped if the table version and the profile are the same as in the previous request.
+    Until the table is read, the pool is filled from the catalogue snapshot
+     */
+    private void requestProfiledIds() {
+        if (tableVersion == 0) {
+            requestSnapshotFiltering();
+            return;
+        }
+        final int version = tableVersion;
+        final int mask = currentProfile.getMask();
+        final Profile.Matcher matcher = profileMatcher;
+        if ((version == filterKeyVersion) && (mask == filterKeyMask)) return;
+        boolean tableChanged = (version != filterKeyVersion);
+        filterKeyVersion = version;
+        filterKeyMask = mask;
+
+        filterExecutor.execute(() -> {
+            // a new snapshot is written once the table stops changing
+            if (tableChanged) scheduleSnapshot();
+            // skip requests already superseded by a newer one
+            if ((version != filterKeyVersion) || (mask != filterKeyMask)) return;
+            // the profile buckets give the matching ids, only the weights other than the default one are read
+            int[] ids = repository.getIdsMatching(matcher);
+            int[] weights = repository.getWeights(ids);
+            publishProfiledIds(ids, weights, ids.length, true);
+        });
+    }
+
+    /*
+    Fill the pool with the ids of the catalogue snapshot matching the current profile, so that names can be
+    drawn before the table is read. Skipped once the table is read, the snapshot ids being the base
+    of the delta applied by the first filtering of the table
+     */
+    private void requestSnapshotFiltering() {
+        final Profile.Matcher matcher = profileMatcher;
+        filterExecutor.execute(() -> {
+            CatalogueSnapshot snapshot = catalogueSnapshot;
+            if ((snapshot == null) || (filterKeyVersion != 0)) return;
+            int count = 0;
+            int[] ids = new int[snapshot.size()];
+            int[] weights = new int[snapshot.size()];
+            for (int i = 0; i < snapshot.size(); i++) {
+                if (matcher.matches(snapshot.getProfileMask(i))) {
+                    ids[count] = snapshot.getId(i);
+                    weights[count] = snapshot.getWeight(i);
+                    count++;
+                }
+            }
+            publishProfiledIds(ids, weights, count, false);
+        });
+    }
+
+    // apply the changes from the last published ids and weights to the pool, on the main thread. Called on the filter
+    // thread, all published results being applied in order. The snapshot is released once the table is read
+    private void publishProfiledIds(int[] ids, int[] weights, int count, boolean fromTable) {
+        PoolDelta delta = PoolDelta.compute(publishedIds, publishedWeights, publishedIds.length, ids, weights, count);
+        final int[] newIds = Arrays.copyOf(ids, count);
+        final int[] newWeights = Arrays.copyOf(weights, count);
+        publishedIds = newIds;
+        publishedWeights = newWeights;
+        mainHandler.post(() -> {
+            profiledIds = newIds;
+            profiledWeights = newWeights;
+            delta.applyTo(nextNames);
+            updateDrawState(delta);
+            if (fromTable) catalogueSnapshot = null;
+            nextNamesCount.setValue(nextNames.remaining());
+        });
+    }
+
+    // write a snapshot of the table once it stops changing for SNAPSHOT_DELAY_MS : the write requested by the
+    // previous change is cancelled if it has not started yet. Called on the filter thread
+    private void scheduleSnapshot() {
+        if (pendingSnapshot != null) pendingSnapshot.cancel(false);
+        try {
+            pendingSnapshot = snapshotWriter.schedule(() -> repository.writeSnapshot(snapshotFile),
+                    SNAPSHOT_DELAY_MS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // the ViewModel is cleared
+            pendingSnapshot = null;
+        }
+    }
+
+    // keep the stored draw state in line with the pool : restore it on the first published result,
+    // then forget the ids leaving the pool
+    private void updateDrawState(PoolDelta delta) {
+        if (drawMode != DRAW_MODE_UNIFORM) return;
+        if (drawStateRestorePending) {
+            drawStateRestorePending = false;
+            for (int id = drawStateStore.nextDrawn(0); id >= 0; id = drawStateStore.nextDrawn(id + 1)) {
+                if (!nextNames.exclude(id)) drawStateStore.markDrawable(id);
             }
+            return;
         }
+        for (int i = 0; i < delta.getRemovedCount(); i++) drawStateStore.markDrawable(delta.getRemovedId(i));
     }
 
     /**
-     * Deletes the currently selected code
+     * Deletes the currently selected code. The deletion can be undone with undoLastDelete
      */
     public void deleteStueck() {
         repository.deleteStueck(currentStueck.getId());
@@ -167,8 +457,8 @@ public class StueckViewModel extends AndroidViewModel {
      * Update a Stueck.
      */
     public void updateStueck() {
-        // before updating, set the UpdateDay value in format dd-MM-yyyy
-        currentStueck.setUpdateDay(DateFormat.format("dd-MM-yyyy", new java.util.Date()).toString());
+        // before updating, set the UpdateDay value to the current day
+        currentStueck.setUpdateDay(today());
         repository.updateStueck(currentStueck);
     }
 
@@ -182,92 +472,246 @@ public class StueckViewModel extends AndroidViewModel {
         The codeId value is zero which leads to autoincrementation in the room database.
         The updateDay value is set to the day of the current system Date
          */
-        // set the UpdateDay value in format dd-MM-yyyy
-        currentStueck.setUpdateDay(DateFormat.format("dd-MM-yyyy", new java.util.Date()).toString());
+        // set the UpdateDay value to the current day
+        currentStueck.setUpdateDay(today());
         repository.insertStueck(currentStueck);
     }
 
     /**
-     * Reinsert the <code>Stueck</code> that was just deleted.
-     * Call this method if the user cancels the deletion of a Stueck. The <code>Stueck</code> will be inserted with all his previous fields,
-     * and it will keep its previous previous dbId and updateDay values
+     * Import the <code>Stueck</code> objects of a bundled asset file in the fill.txt format.
+     * <p>The import runs in the background, its progress and its result are emitted by getImportReport.
+     * The pool of next names is updated after each committed chunk</p>
+     * @param assetName The name of the asset file
+     * @param mode      StueckImporter.MODE_ADD, MODE_SYNC or MODE_SYNC_DELETE, see {@link StueckImporter}
+     * @return false if another import is running, in which case nothing is done
      */
-    public void reInsertStueck() {
-        repository.insertStueck(currentStueck);
+    public boolean importAsset(@NonNull String assetName, int mode) {
+        if (importRunning) return false;
+        startImport();
+        repository.importAsset(assetName, mode, today(), importCancelled, this::onImportProgress);
+        return true;
+    }
+
+    /**
+     * Import the <code>Stueck</code> objects of a file in the fill.txt format, selected with the Storage Access Framework.
+     * <p>The file is streamed in the background, its progress and its result are emitted by getImportReport.
+     * The pool of next names is updated after each committed chunk</p>
+     * @param uri   The Uri of the file
+     * @param mode  StueckImporter.MODE_ADD, MODE_SYNC or MODE_SYNC_DELETE, see {@link StueckImporter}
+     * @return false if another import is running, in which case nothing is done
+     */
+    public boolean importUri(@NonNull Uri uri, int mode) {
+        if (importRunning) return false;
+        startImport();
+        repository.importUri(uri, mode, today(), importCancelled, this::onImportProgress);
+        return true;
+    }
+
+    /**
+     * Cancel the running import, if any. The chunks already committed are kept
+     */
+    public void cancelImport() {
+        if (importCancelled != null) importCancelled.set(true);
+    }
+
+    /**
+     * Get the state of the running or last import
+     * @return  The LiveData report, null when there is nothing to report
+     */
+    public LiveData<ImportReport> getImportReport() {return importReport;}
+
+    /**
+     * Forget the report of the last import, once it has been shown
+     */
+    public void clearImportReport() {
+        if (!importRunning) importReport.setValue(null);
+    }
+
+    private void startImport() {
+        importRunning = true;
+        importCancelled = new AtomicBoolean();
+    }
+
+    // called on the writer thread
+    private void onImportProgress(@NonNull ImportReport report) {
+        if (report.isFinished()) importRunning = false;
+        importReport.postValue(report);
+    }
+
+    /**
+     * Export all the <code>Stueck</code> objects to a file selected with the Storage Access Framework.
+     * <p>The export runs in the background, its result is emitted by getExportResult</p>
+     * @param uri       The Uri of the file
+     * @param format    StueckExporter.FORMAT_TEXT for the fill.txt format, or StueckExporter.FORMAT_BINARY
+     */
+    public void exportUri(@NonNull Uri uri, int format) {
+        repository.exportUri(uri, format, exportResult::postValue);
+    }
+
+    /**
+     * Get the result of the last export
+     * @return  The LiveData number of exported records, StueckExporter.EXPORT_FAILED if the export failed,
+     * null when there is nothing to report
+     */
+    public LiveData<Integer> getExportResult() {return exportResult;}
+
+    /**
+     * Forget the result of the last export, once it has been shown
+     */
+    public void clearExportResult() {
+        exportResult.setValue(null);
+    }
+
+    // the current day of the system, in days since 1970-01-01 as stored in Stueck.updateDay
+    private static int today() {
+        return (int) LocalDate.now().toEpochDay();
+    }
+
+    /**
+     * Undo the last deletion not undone yet. Deletions are journaled in the database, so that several deletions
+     * can be undone in order, even after a configuration change. The <code>Stueck</code> is restored with all
+     * its fields, including its dbId and updateDay values
+     */
+    public void undoLastDelete() {
+        repository.undoLastDelete();
+    }
+
+    /**
+     * Undo the deletion of a given <code>Stueck</code>, even if other deletions were made after it.
+     * Nothing is done if its deletion is already undone
+     * @param stueck    The deleted <code>Stueck</code>
+     */
+    public void undoDelete(@NonNull Stueck stueck) {
+        repository.undoDelete(stueck.getId());
     }
 
+    /**
+     * Get the number of deletions which can be undone
+     * @return  The LiveData number of deletions, at most StueckRepository.MAX_UNDO_ENTRIES
+     */
+    public LiveData<Integer> getUndoCount() {return repository.getUndoCount();}
+
 
-    public int checkStueckBusinessLogic(Stueck stueck, int actionMode) {
+    /**
+     * Check a <code>Stueck</code> before it is inserted or updated. The name is looked up in the database
+     * after the writes already requested
+     * @param stueck        The <code>Stueck</code> built from the user input
+     * @param actionMode    Stueck.MODE_INSERT or Stueck.MODE_UPDATE
+     * @param onChecked     Receives STUECK_OK or the error, called on the main thread
+     */
+    public void checkStueckBusinessLogic(Stueck stueck, int actionMode, @NonNull IntConsumer onChecked) {
         // The stueck must not be null
-        if (stueck == null)
-            return NO_STUECK;
-
-        // Refuse insertion with empty or already existing stueck name
-        if (actionMode == Stueck.MODE_INSERT) {
-            if (stueck.getName().equals(""))
-                return NO_STUECK_NAME;
-            if (stueckNameAlreadyExists(stueck)) {
-                return STUECK_NAME_ALREADY_EXISTS;
-            }
+        if (stueck == null) {
+            onChecked.accept(NO_STUECK);
+            return;
         }
 
-        // Refuse update if the stueck name provided is changed
+        // Refuse insertion with empty stueck name
+        if ((actionMode == Stueck.MODE_INSERT) && stueck.getName().equals("")) {
+            onChecked.accept(NO_STUECK_NAME);
+            return;
+        }
+
+        // Refuse insertion with an already existing stueck name, or update if the stueck name provided is changed
         // to an already existing stueck name
-        if (actionMode == Stueck.MODE_UPDATE) {
-            if ((!stueck.getName().equals(currentStueck.getName()))
-                && (stueckNameAlreadyExists(stueck)))
-                return STUECK_NAME_ALREADY_EXISTS;
-            }
+        int result = checkStueckFields(stueck);
+        boolean nameToCheck = (actionMode == Stueck.MODE_INSERT)
+                || ((actionMode == Stueck.MODE_UPDATE) && !stueck.getName().equals(currentStueck.getName()));
+        if (!nameToCheck) {
+            onChecked.accept(result);
+            return;
+        }
+        repository.checkNameUsed(stueck.getName(), used -> mainHandler.post(
+                () -> onChecked.accept(used ? STUECK_NAME_ALREADY_EXISTS : result)));
+    }
 
+    // check the profile and the weight of a Stueck
+    private static int checkStueckFields(@NonNull Stueck stueck) {
         // check profile validity
-        if (!Profile.isValidProfileString(stueck.getBoolFields())) {
+        if (!stueck.getProfile().isValid()) {
             return INVALID_STUECK_BOOLEANS;
         }
 
+        // check weight bounds
+        if ((stueck.getWeight() < 0) || (stueck.getWeight() > Stueck.MAX_WEIGHT)) {
+            return INVALID_STUECK_WEIGHT;
+        }
+
         // All checks completed
         return STUECK_OK;
     }
 
-    // check that a Stueck matching the name of the given Stueck does not already exists in current stueck list
-    // returns true if the name is NOT in the list
-    private boolean stueckNameAlreadyExists(@NonNull Stueck stueck) {
-
-        if ((allStuecksList == null) || (allStuecksList.getValue() == null))
-            return false;
-
-        for (Stueck c : allStuecksList.getValue()) {
-            if (c.getName().equals(stueck.getName())) {
-                return true;
-            }
+    /**
+     * Draw at random a name among the profiled Stücks, according to the draw mode. The id is drawn at once, its name
+     * is read from the catalogue snapshot until the table is read, then from the database
+     * @param onDrawn   Receives the name, or null if no name can be drawn, called on the main thread
+     */
+    public void drawNextName(@NonNull Consumer<String> onDrawn) {
+        int id = nextNames.draw();
+        if (id == DrawStrategy.NO_ID) {
+            onDrawn.accept(null);
+            return;
+        }
+        if (drawMode == DRAW_MODE_UNIFORM) drawStateStore.markDrawn(id);
+        // drawn before the table is read, the name is read from the snapshot
+        CatalogueSnapshot snapshot = catalogueSnapshot;
+        int index = (snapshot == null) ? -1 : snapshot.indexOfId(id);
+        if (index >= 0) {
+            onDrawn.accept(snapshot.getName(index));
+            return;
         }
-        return false; // no match found
+        filterExecutor.execute(() -> {
+            String name = repository.getName(id);
+            mainHandler.post(() -> onDrawn.accept(name));
+        });
     }
 
-    public List<String> getNextNames() {
-        return nextNames;
+    public int nbNextNames() {
+        return nextNames.remaining();
     }
 
-    public String popNextName(int pos) {
-        try {
-            return (nextNames.remove(pos));
-        } catch (IndexOutOfBoundsException e) {
-            Log.e(TAG, "pop String : No string at this pos");
-            return null;
-        } catch (Exception e) {
-            Log.e(TAG, "pop String : unexpected exception");
-            return null;
-        }
+    /**
+     * Get the number of names left to draw, emitted each time the pool of next names is updated, including
+     * when it is filled from the catalogue snapshot before the table is read
+     * @return  The LiveData number of names
+     */
+    public LiveData<Integer> getNextNamesCount() {return nextNamesCount;}
+
+    public void rebuildNextnames() {
+        nextNames.rewind();
+        drawStateStore.clear();
     }
 
-    public int nbNextNames() {
-        return nextNames.size();
+    /**
+     * Change the way next names are drawn. The draw state is reset, and the mode is saved in shared preferences
+     * @param mode  DRAW_MODE_UNIFORM, DRAW_MODE_WEIGHTED or DRAW_MODE_NO_REPEAT
+     */
+    public void setDrawMode(int mode) {
+        if (mode == drawMode) return;
+        drawMode = mode;
+        nextNames = newDrawStrategy(mode);
+        drawStateStore.clear();
+        drawStateRestorePending = false;
+        for (int i = 0; i < profiledIds.length; i++) nextNames.add(profiledIds[i], profiledWeights[i]);
+
+        SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(getApplication());
+        sharedPref.edit().putInt("DrawMode", mode).apply();
     }
 
-    public void rebuildNextnames() {
-        nextNames.clear();
-        for (int i=0; i < profiledStuecksList.size(); i++) {
-                nextNames.add(profiledStuecksList.get(i).getName());
-            }
+    /**
+     * @return  The current draw mode
+     */
+    public int getDrawMode() {return drawMode;}
+
+    private static DrawStrategy newDrawStrategy(int mode) {
+        switch (mode) {
+            case DRAW_MODE_WEIGHTED:
+                return new WeightedDrawPool();
+            case DRAW_MODE_NO_REPEAT:
+                return new DrawPool(NO_REPEAT_WINDOW);
+            default:
+                return new DrawPool();
+        }
     }
 
     /**
@@ -279,14 +723,6 @@ public class StueckViewModel extends AndroidViewModel {
     }
 
 
-    /**
-     * Get a LiveData list of all <code>Stueck</code> objects in database matching the current Profile
-     * <p>The return value is to be observed to update the RecyclerView </p>
-     * @return  The LiveData list of Stuecks to display
-     */
-    public LiveData<List<Stueck>> getAllStuecksList() {return allStuecksList;}
-
-
     /**
      * Get the next action to be performed.
      * <p>Possible values are :</p>
@@ -310,8 +746,22 @@ public class StueckViewModel extends AndroidViewModel {
         return currentStueck;
     }
 
-    public List<Stueck> getProfiledStuecksList() {return profiledStuecksList;}
-
-
-
-}
\ No newline at end of file
+    /**
+     * Get the paged list of <code>Stueck</code> objects in database matching the current Profile
+     * <p>The return value is to be observed and submitted to the RecyclerView's PagingDataAdapter.
+     * Only the pages around the displayed items are held in memory.</p>
+     * @return  The LiveData paged list of Stuecks to display
+     */
+    public LiveData<PagingData<Stueck>> getPagedStuecks() {return pagedStuecks;}
+
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        stueckCount.removeObserver(tableObserver);
+        filterExecutor.shutdownNow();
+        drawStateStore.close();
+        // the pending snapshot is still written
+        snapshotWriter.shutdown();
+        cancelImport();
+    }
+}
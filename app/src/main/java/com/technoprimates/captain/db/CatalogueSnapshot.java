@@ -0,0 +1,305 @@
+package com.technoprimates.captain.db;
+
+import android.database.Cursor;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A read-only copy of the catalogue of <code>Stueck</code> records, stored in a compact file and memory-mapped,
+ * so that the Stücks can be counted, matched and drawn on startup before the database is read.
+ *
+ * The file holds, after a header of the magic "CAT1" and the number of records, the regions :
+ * - the ids, int[count] in ascending order
+ * - the profile masks, short[count]
+ * - the weights, short[count]
+ * - the offsets of the names in the names region, int[count + 1]
+ * - the names, in UTF-8
+ * The regions are read in place from the mapping, only the names which are requested are decoded.
+ * The file is rewritten as a whole by walking the table, a snapshot may be older than the database.
+ */
+public class CatalogueSnapshot {
+
+    public static final String TAG = "CATALOGUE SNAPSHOT";
+
+    /* "CAT1", identifies the file format */
+    private static final int MAGIC = 0x43415431;
+    private static final int HEADER_SIZE = 8;
+
+    /* Number of rows read by each cursor when the table is walked */
+    private static final int CHUNK_SIZE = 5000;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final int mCount;
+    private final IntBuffer mIds;
+    private final ShortBuffer mMasks;
+    private final ShortBuffer mWeights;
+    private final IntBuffer mNameOffsets;
+    private final ByteBuffer mNames;
+
+    private CatalogueSnapshot(MappedByteBuffer map, int count) {
+        mCount = count;
+        map.position(HEADER_SIZE);
+        mIds = slice(map, 4 * count).asIntBuffer();
+        mMasks = slice(map, 2 * count).asShortBuffer();
+        mWeights = slice(map, 2 * count).asShortBuffer();
+        mNameOffsets = slice(map, 4 * (count + 1)).asIntBuffer();
+        mNames = map.slice();
+    }
+
+    /**
+     * Map a snapshot file
+     * @param file  The file written by write
+     * @return The snapshot, or null if the file does not exist or is not a valid snapshot
+     */
+    @Nullable
+    @WorkerThread
+    public static CatalogueSnapshot map(@NonNull File file) {
+        if (!file.exists()) return null;
+        // the mapping stays valid once the file is closed
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            long length = input.length();
+            if (length < HEADER_SIZE) return null;
+            MappedByteBuffer map = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (map.getInt(0) != MAGIC) return null;
+            int count = map.getInt(4);
+            long namesStart = HEADER_SIZE + 12L * count + 4;
+            if ((count < 0) || (namesStart > length)) return null;
+            if (namesStart + map.getInt((int) namesStart - 4) != length) return null;
+            return new CatalogueSnapshot(map, count);
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot map catalogue snapshot", e);
+            return null;
+        }
+    }
+
+    /**
+     * Write a snapshot of a table list. The file is replaced at once, a mapping of the previous file stays valid
+     * @param file      The snapshot file
+     * @param stuecks   All the <code>Stueck</code> records, ordered by id
+     */
+    @WorkerThread
+    public static void write(@NonNull File file, @NonNull List<Stueck> stuecks) {
+        try (Writer writer = new Writer(file)) {
+            for (int i = 0; i < stuecks.size(); i++) {
+                Stueck stueck = stuecks.get(i);
+                writer.add(stueck.getId(), stueck.getProfileMask(), stueck.getWeight(), stueck.getName());
+            }
+            writer.commit();
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot write catalogue snapshot", e);
+        }
+    }
+
+    /**
+     * Write a snapshot of the table, walked by id with cursors of CHUNK_SIZE rows, so that the records are not
+     * loaded as objects. As for an export, the records written while the table is walked may or may not be in the
+     * snapshot. The file is replaced at once, a mapping of the previous file stays valid
+     * @param file  The snapshot file
+     * @param dao   The DAO reading the table
+     */
+    @WorkerThread
+    static void write(@NonNull File file, @NonNull StueckDao dao) {
+        try (Writer writer = new Writer(file)) {
+            int lastId = 0;
+            int rows;
+            do {
+                rows = 0;
+                try (Cursor cursor = dao.getStuecksAfter(lastId, CHUNK_SIZE)) {
+                    while (cursor.moveToNext()) {
+                        lastId = cursor.getInt(0);
+                        writer.add(lastId, cursor.getInt(1), cursor.getInt(3), cursor.getString(2));
+                        rows++;
+                    }
+                }
+            } while (rows == CHUNK_SIZE);
+            writer.commit();
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot write catalogue snapshot", e);
+        }
+    }
+
+    /**
+     * @return The number of records
+     */
+    public int size() {return mCount;}
+
+    /**
+     * @param index The index of the record, between 0 and size() - 1
+     * @return The id of the record
+     */
+    public int getId(int index) {return mIds.get(index);}
+
+    /**
+     * @param index The index of the record, between 0 and size() - 1
+     * @return The profile mask of the record
+     */
+    public int getProfileMask(int index) {return mMasks.get(index) & Profile.ALL_MASK;}
+
+    /**
+     * @param index The index of the record, between 0 and size() - 1
+     * @return The weight of the record in weighted draws
+     */
+    public int getWeight(int index) {return mWeights.get(index);}
+
+    /**
+     * Decode the name of a record
+     * @param index The index of the record, between 0 and size() - 1
+     * @return The name of the record
+     */
+    @NonNull
+    public String getName(int index) {
+        int start = mNameOffsets.get(index);
+        byte[] bytes = new byte[mNameOffsets.get(index + 1) - start];
+        ByteBuffer names = mNames.duplicate();
+        names.position(start);
+        names.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Binary search of an id
+     * @param id    The id to search
+     * @return The index of the record, or -1 if the id is not in the snapshot
+     */
+    public int indexOfId(int id) {
+        int low = 0;
+        int high = mCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midId = mIds.get(mid);
+            if (midId < id) low = mid + 1;
+            else if (midId > id) high = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    /* Writes a snapshot file record by record. The fixed fields are kept in arrays, and the names are staged
+    in a side file, appended to the snapshot once all the records are added */
+    private static final class Writer implements Closeable {
+
+        private static final int INITIAL_CAPACITY = 1024;
+
+        private final File mFile;
+        private final File mTemp;
+        private final File mStagedNamesFile;
+        private final FileChannel mStagedNames;
+        private final ByteBuffer mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        private int mCount;
+        private int[] mIds = new int[INITIAL_CAPACITY];
+        private short[] mMasks = new short[INITIAL_CAPACITY];
+        private short[] mWeights = new short[INITIAL_CAPACITY];
+        // the offset of the end of each name, i.e. of the start of the next one
+        private int[] mNameEnds = new int[INITIAL_CAPACITY];
+        private int mNamesLength;
+
+        Writer(File file) throws IOException {
+            mFile = file;
+            mTemp = new File(file.getPath() + ".tmp");
+            mStagedNamesFile = new File(file.getPath() + ".names");
+            mStagedNames = new RandomAccessFile(mStagedNamesFile, "rw").getChannel();
+            mStagedNames.truncate(0);
+        }
+
+        /* Add a record, the records being added in ascending order of id */
+        void add(int id, int mask, int weight, String name) throws IOException {
+            if (mCount == mIds.length) {
+                int capacity = mCount * 2;
+                mIds = Arrays.copyOf(mIds, capacity);
+                mMasks = Arrays.copyOf(mMasks, capacity);
+                mWeights = Arrays.copyOf(mWeights, capacity);
+                mNameEnds = Arrays.copyOf(mNameEnds, capacity);
+            }
+            byte[] bytes = (name == null) ? new byte[0] : name.getBytes(StandardCharsets.UTF_8);
+            mNamesLength += bytes.length;
+            mIds[mCount] = id;
+            mMasks[mCount] = (short) mask;
+            mWeights[mCount] = (short) weight;
+            mNameEnds[mCount] = mNamesLength;
+            mCount++;
+            if (mBuffer.remaining() < bytes.length) flush(mStagedNames);
+            if (bytes.length > mBuffer.capacity()) {
+                writeFully(mStagedNames, ByteBuffer.wrap(bytes));
+            } else {
+                mBuffer.put(bytes);
+            }
+        }
+
+        /* Write the snapshot to a temporary file, then replace the snapshot file by it */
+        void commit() throws IOException {
+            flush(mStagedNames);
+            try (FileChannel out = new FileOutputStream(mTemp).getChannel()) {
+                putInt(out, MAGIC);
+                putInt(out, mCount);
+                for (int i = 0; i < mCount; i++) putInt(out, mIds[i]);
+                for (int i = 0; i < mCount; i++) putShort(out, mMasks[i]);
+                for (int i = 0; i < mCount; i++) putShort(out, mWeights[i]);
+                putInt(out, 0);
+                for (int i = 0; i < mCount; i++) putInt(out, mNameEnds[i]);
+                flush(out);
+                long position = 0;
+                while (position < mNamesLength)
+                    position += mStagedNames.transferTo(position, mNamesLength - position, out);
+            }
+            if (!mTemp.renameTo(mFile)) throw new IOException("Cannot replace " + mFile);
+        }
+
+        /* Delete the staged names, and the temporary file if the snapshot was not committed */
+        @Override
+        public void close() throws IOException {
+            try {
+                mStagedNames.close();
+            } finally {
+                mStagedNamesFile.delete();
+                mTemp.delete();
+            }
+        }
+
+        private void putInt(FileChannel out, int value) throws IOException {
+            if (mBuffer.remaining() < 4) flush(out);
+            mBuffer.putInt(value);
+        }
+
+        private void putShort(FileChannel out, short value) throws IOException {
+            if (mBuffer.remaining() < 2) flush(out);
+            mBuffer.putShort(value);
+        }
+
+        private void flush(FileChannel out) throws IOException {
+            mBuffer.flip();
+            writeFully(out, mBuffer);
+            mBuffer.clear();
+        }
+
+        private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) out.write(buffer);
+        }
+    }
+
+    /* Slice the next region of the mapping */
+    private static ByteBuffer slice(ByteBuffer map, int length) {
+        ByteBuffer region = map.slice();
+        region.limit(length);
+        map.position(map.position() + length);
+        return region;
+    }
+}
@@ -0,0 +1,165 @@
+package com.technoprimates.captain.db;
+
+import androidx.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The state of an import run by {@link StueckImporter} : progress while the import is running, then its result.
+ * Immutable, it can be passed between threads.
+ */
+public class ImportReport {
+
+    // Import states
+    public static final int STATE_RUNNING = 0;
+    public static final int STATE_DONE = 1;
+    public static final int STATE_CANCELLED = 2;
+    public static final int STATE_FAILED = 3;
+
+    /**
+     * Size of the source when it is not known
+     */
+    public static final long UNKNOWN_SIZE = -1;
+
+    /**
+     * A line of the source which could not be imported
+     */
+    public static class RejectedLine {
+
+        // Rejection reasons
+        public static final int REASON_NO_NAME = 1;
+        public static final int REASON_INVALID_PROFILE = 2;
+
+        private final long mLineNumber;
+        private final int mReason;
+        private final String mText;
+
+        RejectedLine(long lineNumber, int reason, @NonNull String text) {
+            mLineNumber = lineNumber;
+            mReason = reason;
+            mText = text;
+        }
+
+        /**
+         * @return The number of the line in the source, starting at 1
+         */
+        public long getLineNumber() {return mLineNumber;}
+
+        /**
+         * @return REASON_NO_NAME or REASON_INVALID_PROFILE
+         */
+        public int getReason() {return mReason;}
+
+        /**
+         * @return The content of the line
+         */
+        @NonNull
+        public String getText() {return mText;}
+    }
+
+    private final int mState;
+    private final int mMode;
+    private final long mLineCount;
+    private final int mInsertedCount;
+    private final int mDuplicateCount;
+    private final int mUpdatedCount;
+    private final int mDeletedCount;
+    private final long mRejectedCount;
+    private final List<RejectedLine> mRejectedLines;
+    private final long mBytesRead;
+    private final long mTotalBytes;
+
+    ImportReport(int state, int mode, long lineCount, int insertedCount, int duplicateCount, int updatedCount,
+                 int deletedCount, long rejectedCount, @NonNull List<RejectedLine> rejectedLines,
+                 long bytesRead, long totalBytes) {
+        mState = state;
+        mMode = mode;
+        mLineCount = lineCount;
+        mInsertedCount = insertedCount;
+        mDuplicateCount = duplicateCount;
+        mUpdatedCount = updatedCount;
+        mDeletedCount = deletedCount;
+        mRejectedCount = rejectedCount;
+        mRejectedLines = Collections.unmodifiableList(rejectedLines);
+        mBytesRead = bytesRead;
+        mTotalBytes = totalBytes;
+    }
+
+    /* The report of an import whose source cannot be opened */
+    static ImportReport failed(int mode) {
+        return new ImportReport(STATE_FAILED, mode, 0, 0, 0, 0, 0, 0, Collections.emptyList(), 0, UNKNOWN_SIZE);
+    }
+
+    /**
+     * @return STATE_RUNNING, STATE_DONE, STATE_CANCELLED or STATE_FAILED
+     */
+    public int getState() {return mState;}
+
+    /**
+     * @return true if the import is complete, whatever its result
+     */
+    public boolean isFinished() {return mState != STATE_RUNNING;}
+
+    /**
+     * @return The import mode, StueckImporter.MODE_ADD, MODE_SYNC or MODE_SYNC_DELETE
+     */
+    public int getMode() {return mMode;}
+
+    /**
+     * @return The number of lines processed
+     */
+    public long getLineCount() {return mLineCount;}
+
+    /**
+     * @return The number of inserted <code>Stueck</code>. The chunks committed before a cancellation or a failure
+     * are kept, and counted
+     */
+    public int getInsertedCount() {return mInsertedCount;}
+
+    /**
+     * @return The number of valid lines skipped because their name already exists, with the same profile
+     * when synchronizing
+     */
+    public int getDuplicateCount() {return mDuplicateCount;}
+
+    /**
+     * @return The number of <code>Stueck</code> whose profile was updated, when synchronizing
+     */
+    public int getUpdatedCount() {return mUpdatedCount;}
+
+    /**
+     * @return The number of <code>Stueck</code> deleted because their name is absent from the source,
+     * in MODE_SYNC_DELETE. Known when the import is done
+     */
+    public int getDeletedCount() {return mDeletedCount;}
+
+    /**
+     * @return The number of rejected lines
+     */
+    public long getRejectedCount() {return mRejectedCount;}
+
+    /**
+     * @return The first rejected lines, at most StueckImporter.MAX_REPORTED_REJECTS. Empty while the import is running
+     */
+    @NonNull
+    public List<RejectedLine> getRejectedLines() {return mRejectedLines;}
+
+    /**
+     * @return The number of bytes read from the source
+     */
+    public long getBytesRead() {return mBytesRead;}
+
+    /**
+     * @return The size of the source in bytes, or UNKNOWN_SIZE
+     */
+    public long getTotalBytes() {return mTotalBytes;}
+
+    /**
+     * @return The percentage of the source read, or -1 if the size of the source is not known
+     */
+    public int getPercent() {
+        if (mTotalBytes <= 0) return -1;
+        return (int) Math.min(100, mBytesRead * 100 / mTotalBytes);
+    }
+}
@@ -1,7 +1,5 @@
 package com.technoprimates.captain.db;
 
-import android.util.Log;
-
 import androidx.annotation.NonNull;
 
 /**
@@ -22,6 +20,9 @@ import androidx.annotation.NonNull;
  * Statement is acceptable for a specific usage. To achieve this, build a Profile object representing this specific usage,
  * and check with the matches method whether the Statement's Profile is compatible
  *
+ * Profile objects are immutable. As there are only 2^NB_CHECKBOX possible profiles, they are only obtained
+ * with the of methods, which return shared instances, and the methods used when filtering the Statements
+ * do not allocate. Profiles are to be compared with their masks.
  */
 public class Profile {
 
@@ -44,28 +45,52 @@ public class Profile {
     private static final int NB_CHECKBOX_STYLE = 3;
     private static final int NB_CHECKBOX_CRITERIA = 7;
 
-    /* A profile object is essentially defined by this array of booleans */
-    private final boolean[] mFlag = new boolean[NB_CHECKBOX];
+    /* Bit masks of the three groups. Bit i of a profile mask stands for checkbox i */
+    public static final int NATURE_MASK = (1 << NB_CHECKBOX_NATURE) - 1;
+    public static final int STYLE_MASK = ((1 << NB_CHECKBOX_STYLE) - 1) << NB_CHECKBOX_NATURE;
+    public static final int CRITERIA_MASK = ((1 << NB_CHECKBOX_CRITERIA) - 1) << (NB_CHECKBOX_NATURE + NB_CHECKBOX_STYLE);
 
     /**
-     * Default constructor, builds a default Profile with all usages allowed
+     * The mask with all usages allowed
      */
-    public Profile(){
-        for (int i = 0; i < NB_CHECKBOX; i++) this.mFlag[i] = true;
+    public static final int ALL_MASK = (1 << NB_CHECKBOX) - 1;
+
+    /* The shared instances, indexed by mask, created on first use */
+    private static final Profile[] INSTANCES = new Profile[ALL_MASK + 1];
+
+    /* A profile object is essentially defined by this bit mask */
+    private final int mMask;
+
+    /* The string form, built on first use */
+    private String mString;
+
+    /* Constructor from a bit mask, only called by of(int) */
+    private Profile(int mask){
+        this.mMask = mask & ALL_MASK;
     }
 
     /**
-     * Constructor from a String.
-     * If the String does not define a valid Profile, the default Profile is built
+     * Get the shared Profile of a bit mask
+     * @param mask  The bit mask, as returned by getMask. The mask is not checked.
+     * @return The Profile, always the same object for a given mask
      */
-    public Profile(String stringProfile){
-        this(); // initialize to default Profile
-        // if the string is valid, set the booleans
-        if ((stringProfile != null)
-                && (stringProfile.length() == NB_CHECKBOX)
-                && (isValidProfileString(stringProfile))) {
-            for (int i = 0; i < NB_CHECKBOX; i++) this.mFlag[i] = (stringProfile.charAt(i) == 'X');
-        }
+    public static Profile of(int mask) {
+        mask &= ALL_MASK;
+        // a race may create two instances of the same immutable Profile, which is harmless
+        // as profiles are compared with their masks
+        Profile profile = INSTANCES[mask];
+        if (profile == null) profile = INSTANCES[mask] = new Profile(mask);
+        return profile;
+    }
+
+    /**
+     * Get the shared Profile of a String.
+     * If the String does not define a valid Profile, the default Profile is returned
+     * @param stringProfile The String
+     * @return The Profile, always the same object for a given mask
+     */
+    public static Profile of(String stringProfile) {
+        return of(isValidProfileString(stringProfile) ? maskFromString(stringProfile) : ALL_MASK);
     }
 
 
@@ -75,38 +100,41 @@ public class Profile {
      * @return true if it defines a valid Profile
      */
     public static boolean isValidProfileString(String stringProfile) {
-        boolean[] flags = new boolean[NB_CHECKBOX];
+        if ((stringProfile == null) || (stringProfile.length() != NB_CHECKBOX))
+            return false;
+        return isValidMask(maskFromString(stringProfile));
+    }
 
+    /**
+     * Static method checking if a bit mask defines a valid Profile, i.e. if at least one nature,
+     * one style and one criteria are set
+     * @param mask The mask to check
+     * @return true if it defines a valid Profile
+     */
+    public static boolean isValidMask(int mask) {
+        return ((mask & NATURE_MASK) != 0)
+                & ((mask & STYLE_MASK) != 0)
+                & ((mask & CRITERIA_MASK) != 0);
+    }
 
-        // split the string into a boolean array
+    /**
+     * Converts a profile String into a bit mask. The String is not checked.
+     * @param s a string of length NB_CHECKBOX whose chars represent each a usage.
+     *          The char is 'X' if the usage is allowed, ' ' otherwise.
+     * @return the mask, bit i being set if char i is 'X'
+     */
+    public static int maskFromString(String s) {
+        int mask = 0;
         for (int i = 0; i < NB_CHECKBOX; i++)
-            flags[i] = (stringProfile.charAt(i) == 'X');
-
-        // check the booleans
-        // at least one nature must be true
-        int j=0; // loop index on all booleans
-        boolean bValid = false;
-        for (int i =0 ; i < NB_CHECKBOX_NATURE ; i++)
-            if (flags[j++]) bValid = true;
-        if (!bValid) return false;
-
-        // at least one style must be true
-        bValid = false;
-        for (int i =0 ; i < NB_CHECKBOX_STYLE ; i++)
-            if (flags[j++]) bValid = true;
-        if (!bValid) return false;
-
-        // at least one criteria must be true
-        bValid = false;
-        for (int i =0 ; i < NB_CHECKBOX_CRITERIA ; i++)
-            if (flags[j++]) bValid = true;
-        return bValid;
+            if (s.charAt(i) == 'X') mask |= (1 << i);
+        return mask;
     }
 
 
 
     /**
      * Returns a string of fixed length. Each char represent a boolean member of the object.
+     * The string is built on the first call, the next calls return the same object.
      *
      * @return a string of length NB_CHECKBOX whose chars represent each a condition. The char is
      * 'X' if the condition is met, ' ' otherwise.
@@ -114,31 +142,32 @@ public class Profile {
     @NonNull
     @Override
     public String toString() {
-        StringBuilder buffer = new StringBuilder(NB_CHECKBOX);
-        for (int i =0 ; i < NB_CHECKBOX ; i++)
-            buffer.append(mFlag[i] ? 'X' : ' ');
-
-        Log.d(TAG, "toString : Text : Z" + buffer + "Z");
-
-        return(buffer.toString());
+        String string = mString;
+        if (string == null) {
+            char[] chars = new char[NB_CHECKBOX];
+            for (int i =0 ; i < NB_CHECKBOX ; i++)
+                chars[i] = isEnabled(i) ? 'X' : ' ';
+            string = mString = new String(chars);
+        }
+        return string;
     }
 
+    /**
+     * @return true if at least one nature, one style and one criteria are allowed, see {@link #isValidMask(int)}
+     */
+    public boolean isValid() {return isValidMask(mMask);}
+
     /**
      * Checks whether a specific usage condition is allowed
      * @param i number of the usage to check
      * @return true if the usage is allowed
      */
-    public boolean isEnabled(int i){return mFlag[i];}
+    public boolean isEnabled(int i){return (mMask & (1 << i)) != 0;}
 
     /**
-     * Set a Profile's content by updating all its possible usages.
-     * @param s a string of length NB_CHECKBOX whose chars represent each a usage.
-     *          The char is 'X' if the usage is allowed, ' ' otherwise.
+     * @return the bit mask of the Profile, bit i being set if usage i is allowed
      */
-    public void feedFromString (String s) {
-        for (int i = 0; i < NB_CHECKBOX; i++)
-            this.mFlag[i] = (s.charAt(i) == 'X');
-    }
+    public int getMask() {return mMask;}
 
 
     /**
@@ -150,34 +179,59 @@ public class Profile {
      * @return true if both Profile are compatible
      */
     public boolean matches(Profile p){
-        // returns true if natures match, styles also match, and criterias also match
+        return matches(p.mMask);
+    }
 
-        int j=0;
+    /**
+     * Checks whether the Profile defined by the specified mask is compatible with the current Profile object.
+     * @param mask bit mask of the Profile whose compatibility is to be checked
+     * @return true if both Profile are compatible
+     * @see #matches(Profile)
+     */
+    public boolean matches(int mask){
+        // the common usages must contain a nature, a style and a criteria
+        return isValidMask(mMask & mask);
+    }
 
-        // at least one nature must match
-        boolean match = false;
-        for (int i =0 ; i < NB_CHECKBOX_NATURE ; i++) {
-            if (mFlag[j] && p.mFlag[j]) match = true;
-            j++;
-        }
-        if (!match) return false;
+    /**
+     * Compile the Profile into a matcher answering matches with a table lookup.
+     * @return A matcher equivalent to the matches methods of the current Profile
+     */
+    public Matcher compile() {
+        return new Matcher(mMask);
+    }
 
+    /**
+     * The compatibility of all the possible profile masks with a Profile, precomputed in a 2^NB_CHECKBOX bits table.
+     * Immutable, it can be shared between threads.
+     */
+    public static final class Matcher {
+
+        private final int mMask;
 
-        // at least one style must match
-        match = false;
-        for (int i =0 ; i < NB_CHECKBOX_STYLE ; i++) {
-            if (mFlag[j] && p.mFlag[j]) match = true;
-            j++;
+        /* Bit m is set if the profile mask m is compatible */
+        private final long[] mTable = new long[(ALL_MASK + 1) >>> 6];
+
+        private Matcher(int mask) {
+            mMask = mask;
+            for (int m = 0; m <= ALL_MASK; m++)
+                if (isValidMask(mask & m)) mTable[m >>> 6] |= (1L << m);
         }
-        if (!match) return false;
 
-        // at least one criteria must match
-        match = false;
-        for (int i =0 ; i < NB_CHECKBOX_CRITERIA ; i++) {
-            if (mFlag[j] && p.mFlag[j]) match = true;
-            j++;
+        /**
+         * @return the bit mask of the compiled Profile
+         */
+        public int getMask() {return mMask;}
+
+        /**
+         * Checks whether the Profile defined by the specified mask is compatible with the compiled Profile
+         * @param mask bit mask of the Profile whose compatibility is to be checked
+         * @return true if both Profile are compatible
+         * @see Profile#matches(int)
+         */
+        public boolean matches(int mask) {
+            // the shift distance of a long is taken modulo 64
+            return (mTable[(mask & ALL_MASK) >>> 6] & (1L << mask)) != 0;
         }
-        return match;
     }
 }
-
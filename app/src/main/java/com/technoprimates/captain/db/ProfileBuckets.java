@@ -0,0 +1,134 @@
+package com.technoprimates.captain.db;
+
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * An in-memory index of the <code>Stueck</code> ids grouped by profile mask.
+ *
+ * There are only 2^NB_CHECKBOX possible profile masks, so the Stücks matching a Profile are found by
+ * evaluating the Profile once per non-empty bucket and concatenating the matching buckets, instead of
+ * evaluating it once per Stueck. The index is loaded once from the database, then maintained by the
+ * repository on each write, once the write transaction is committed. The importer changes it within its chunk
+ * transactions, and loads it again if a chunk is rolled back.
+ * All methods are thread-safe.
+ */
+public class ProfileBuckets {
+
+    private static final int NO_MASK = -1;
+    private static final int INITIAL_BUCKET_CAPACITY = 4;
+
+    /* The ids of each mask, in no particular order */
+    private final int[][] mBuckets = new int[Profile.ALL_MASK + 1][];
+    private final int[] mBucketSizes = new int[Profile.ALL_MASK + 1];
+
+    /* For each id : its mask, or NO_MASK, and its position in the bucket of the mask */
+    private int[] mMasks = new int[0];
+    private int[] mPositions = new int[0];
+
+    private int mSize;
+    private boolean mLoaded;
+
+    /**
+     * Fill the index with the ids and masks of a query, replacing its content
+     * @param cursor    A cursor with the id in column 0 and the profile mask in column 1, closed by the caller
+     */
+    synchronized void load(@NonNull Cursor cursor) {
+        Arrays.fill(mBucketSizes, 0);
+        Arrays.fill(mMasks, NO_MASK);
+        mSize = 0;
+        while (cursor.moveToNext()) put(cursor.getInt(0), cursor.getInt(1));
+        mLoaded = true;
+    }
+
+    /**
+     * @return true once the index is loaded, the index is incomplete before
+     */
+    public synchronized boolean isLoaded() {return mLoaded;}
+
+    /**
+     * @return The number of indexed ids
+     */
+    public synchronized int size() {return mSize;}
+
+    /**
+     * Index an id, or move it to another bucket if its mask changed
+     * @param id    The id of the Stueck
+     * @param mask  The profile mask of the Stueck
+     */
+    synchronized void put(int id, int mask) {
+        mask &= Profile.ALL_MASK;
+        int oldMask = getMask(id);
+        if (oldMask == mask) return;
+        if (oldMask != NO_MASK) remove(id);
+        if (id >= mMasks.length) {
+            int oldLength = mMasks.length;
+            int newLength = Math.max(id + 1, oldLength * 2);
+            mMasks = Arrays.copyOf(mMasks, newLength);
+            mPositions = Arrays.copyOf(mPositions, newLength);
+            Arrays.fill(mMasks, oldLength, newLength, NO_MASK);
+        }
+        int[] bucket = mBuckets[mask];
+        int size = mBucketSizes[mask];
+        if (bucket == null) {
+            bucket = mBuckets[mask] = new int[INITIAL_BUCKET_CAPACITY];
+        } else if (size == bucket.length) {
+            bucket = mBuckets[mask] = Arrays.copyOf(bucket, size * 2);
+        }
+        bucket[size] = id;
+        mBucketSizes[mask] = size + 1;
+        mMasks[id] = mask;
+        mPositions[id] = size;
+        mSize++;
+    }
+
+    /**
+     * Remove an id from the index, the last id of its bucket taking its place
+     * @param id    The id of the Stueck
+     */
+    synchronized void remove(int id) {
+        int mask = getMask(id);
+        if (mask == NO_MASK) return;
+        int[] bucket = mBuckets[mask];
+        int last = --mBucketSizes[mask];
+        int position = mPositions[id];
+        bucket[position] = bucket[last];
+        mPositions[bucket[position]] = position;
+        mMasks[id] = NO_MASK;
+        mSize--;
+    }
+
+    /**
+     * Get the ids of the Stücks matching a Profile. The Profile is evaluated once per non-empty bucket
+     * @param matcher   The compiled Profile to match
+     * @return The matching ids in ascending order, or null if the index is not loaded yet
+     */
+    public synchronized int[] idsMatching(@NonNull Profile.Matcher matcher) {
+        if (!mLoaded) return null;
+        int[] matchingMasks = new int[Profile.ALL_MASK + 1];
+        int nbMasks = 0;
+        int count = 0;
+        for (int mask = 0; mask <= Profile.ALL_MASK; mask++) {
+            if ((mBucketSizes[mask] > 0) && matcher.matches(mask)) {
+                matchingMasks[nbMasks++] = mask;
+                count += mBucketSizes[mask];
+            }
+        }
+        int[] ids = new int[count];
+        int n = 0;
+        for (int i = 0; i < nbMasks; i++) {
+            int mask = matchingMasks[i];
+            System.arraycopy(mBuckets[mask], 0, ids, n, mBucketSizes[mask]);
+            n += mBucketSizes[mask];
+        }
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    private int getMask(int id) {
+        return (id < mMasks.length) ? mMasks[id] : NO_MASK;
+    }
+}
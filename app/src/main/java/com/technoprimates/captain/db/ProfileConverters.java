@@ -0,0 +1,22 @@
+package com.technoprimates.captain.db;
+
+import androidx.annotation.NonNull;
+import androidx.room.TypeConverter;
+
+/**
+ * Room type converters storing a Profile as its bit mask in an INTEGER column.
+ * Read profiles are the shared instances of {@link Profile#of(int)}, so that rows do not hold their own copy.
+ */
+public class ProfileConverters {
+
+    @TypeConverter
+    @NonNull
+    public static Profile toProfile(int mask) {
+        return Profile.of(mask);
+    }
+
+    @TypeConverter
+    public static int toMask(@NonNull Profile profile) {
+        return profile.getMask();
+    }
+}
@@ -4,12 +4,18 @@ package com.technoprimates.captain.db;
 import androidx.annotation.NonNull;
 import androidx.room.ColumnInfo;
 import androidx.room.Entity;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
 /**
  * This class represents an item, stored in a room database.
  */
-@Entity(tableName = "stuecks")
+@Entity(tableName = "stuecks",
+        indices = {@Index("sProfileMask"),
+                @Index(value = "sName", unique = true),
+                @Index("sSearchName"),
+                @Index("sUpdateDay"),
+                @Index("sDeleted")})
 public class Stueck {
 
     // Action modes
@@ -17,6 +23,13 @@ public class Stueck {
     public static final int MODE_INSERT = 103;
     public static final int MODE_DELETE = 104;
 
+    // Update day of a Stueck whose update day is not known
+    public static final int UNKNOWN_DAY = 0;
+
+    // Weight bounds for weighted draws
+    public static final int DEFAULT_WEIGHT = 1;
+    public static final int MAX_WEIGHT = 1000;
+
 
     /* The internal database id. */
     @PrimaryKey(autoGenerate = true)
@@ -27,32 +40,78 @@ public class Stueck {
     @ColumnInfo(name="sName")
     private String name;
 
-    /** The day of last update, in string format dd-MM-yyyy */
-    @ColumnInfo(name="sUpdateDay")
-    private String updateDay;
+    /* A copy of the name with a case-insensitive collation, for case-insensitive and prefix searches */
+    @ColumnInfo(name="sSearchName", collate = ColumnInfo.NOCASE)
+    private String searchName;
 
-    /* An int representing a boolean field */
-    @ColumnInfo(name="sBoolFields")
-    private String boolFields;
+    /** The day of last update, as a number of days since 1970-01-01 */
+    @ColumnInfo(name="sUpdateDay", defaultValue = "0")
+    private int updateDay;
 
-    public Profile getProfile() {
-        return new Profile(getBoolFields());
-    }
+    /* The Profile, a shared instance stored as its bit mask, see {@link ProfileConverters} */
+    @NonNull
+    @ColumnInfo(name="sProfileMask", defaultValue = "0")
+    private Profile profile;
+
+    /* The weight of the Stueck in weighted draws, 0 for never drawn */
+    @ColumnInfo(name="sWeight", defaultValue = "1")
+    private int weight;
+
+    /* true once the Stueck is deleted, until the deletion is undone or the row is purged, see {@link UndoEntry} */
+    @ColumnInfo(name="sDeleted", defaultValue = "0")
+    private boolean deleted;
+
+    /**
+     * @return  The Profile of the <code>Stueck</code>, a shared instance
+     */
+    @NonNull
+    public Profile getProfile() {return profile;}
+
+    /**
+     * Sets the Profile of the <code>Stueck</code>
+     * @param profile   The Profile
+     */
+    public void setProfile(@NonNull Profile profile) {this.profile = profile;}
+
+    /**
+     * @return  The bit mask of the Profile, see {@link Profile#getMask()}
+     */
+    public int getProfileMask() {return profile.getMask();}
+
+    /**
+     * @return  The weight of the <code>Stueck</code> in weighted draws, between 0 and MAX_WEIGHT
+     */
+    public int getWeight() {return weight;}
 
-    public String getBoolFields() {return boolFields;}
+    /**
+     * Sets the weight of the <code>Stueck</code> in weighted draws
+     * @param weight    The weight, 0 for a <code>Stueck</code> never drawn
+     */
+    public void setWeight(int weight) {this.weight = weight;}
 
-    public void setBoolFields(String boolFields) {this.boolFields = boolFields;}
+    /**
+     * @return  true if the <code>Stueck</code> is soft-deleted. Soft-deleted rows are not returned by the Dao queries
+     */
+    public boolean isDeleted() {return deleted;}
+
+    /**
+     * Sets the soft-delete flag. This method is meant to be called only by room Dao implementations
+     * @param deleted   true if the <code>Stueck</code> is soft-deleted
+     */
+    public void setDeleted(boolean deleted) {this.deleted = deleted;}
 
     /**
     Constructor to manually build a <code>Stueck</code>.
      * @param name      A name used to retrieve the {@code Stueck}.
-     * @param boolFields   A string with 1s and 0s representing boolean values
+     * @param profile   The Profile of the {@code Stueck}
      */
-    public Stueck(String name, String boolFields) {
+    public Stueck(String name, @NonNull Profile profile) {
         this.id = 0;
         this.name = name;
-        this.updateDay = "";
-        this.boolFields = boolFields;
+        this.searchName = name;
+        this.updateDay = UNKNOWN_DAY;
+        this.weight = DEFAULT_WEIGHT;
+        this.profile = profile;
     }
 
     /**
@@ -61,7 +120,9 @@ public class Stueck {
      */
     public void setUserProvidedFields(@NonNull Stueck userProvidedStueck) {
         this.name = userProvidedStueck.name;
-        this.boolFields = userProvidedStueck.boolFields;
+        this.searchName = userProvidedStueck.name;
+        this.profile = userProvidedStueck.profile;
+        this.weight = userProvidedStueck.weight;
     }
 
     /**
@@ -75,9 +136,23 @@ public class Stueck {
     public String getName() {return this.name;}
 
     /**
-     * @return  The day the <code>Stueck</code> was last updated, in string format dd-MM-yyyy
+     * @return  The name of the <code>Stueck</code>, as stored in the case-insensitive search column.
+     * null in the <code>Stueck</code> of the list of all Stücks, which does not read this column
+     */
+    public String getSearchName() {return this.searchName;}
+
+    /**
+     * Sets the search name. This method is meant to be called only by room Dao implementations,
+     * the search name is otherwise kept equal to the name
+     * @param searchName   The name
+     */
+    public void setSearchName(String searchName) {this.searchName = searchName;}
+
+    /**
+     * @return  The day the <code>Stueck</code> was last updated, in days since 1970-01-01 as
+     * returned by <code>LocalDate.toEpochDay</code>, or UNKNOWN_DAY
      */
-    public String getUpdateDay() {return this.updateDay;}
+    public int getUpdateDay() {return this.updateDay;}
 
     /**
      * Sets the database Id. This method is meant to be called only by room Dao implementations
@@ -88,7 +163,7 @@ public class Stueck {
 
     /**
      * Sets the day of the update .
-     * @param updateDay The day in string format dd-MM-yyyy
+     * @param updateDay The day in days since 1970-01-01, as returned by <code>LocalDate.toEpochDay</code>
      */
-    public void setUpdateDay(String updateDay) {this.updateDay = updateDay;}
+    public void setUpdateDay(int updateDay) {this.updateDay = updateDay;}
 }
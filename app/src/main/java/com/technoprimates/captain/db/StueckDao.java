@@ -1,37 +1,331 @@
 package com.technoprimates.captain.db;
 
+import android.database.Cursor;
+
 import androidx.lifecycle.LiveData;
+import androidx.paging.PagingSource;
 import androidx.room.Dao;
 import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
 import androidx.room.Update;
 
 import java.util.List;
 
+/**
+ * Data access to the stuecks table and to the undo journal.
+ * Soft-deleted records are excluded by all the queries reading Stücks, with the term "+sDeleted = 0" :
+ * the unary + keeps SQLite from choosing the index of the flag, which matches nearly all rows, over the indices
+ * used for the search and the ordering. The index of the flag is only used to find the soft-deleted records.
+ */
 @Dao
 public interface StueckDao {
 
     /**
-     * Insert a <code>Stueck</code> in the database
+     * Insert a <code>Stueck</code> in the database. Nothing is inserted if the name already exists
      * @param stueck  The <code>Stueck</code> to be inserted
+     * @return  The database id of the inserted <code>Stueck</code>, or -1 if the name already exists
      */
-    @Insert
-    void insertStueck(Stueck stueck);
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    long insertStueck(Stueck stueck);
+
+    /**
+     * Insert a list of <code>Stueck</code> in the database, within a single transaction.
+     * The <code>Stueck</code> whose name already exists are skipped
+     * @param stuecks  The <code>Stueck</code> objects to be inserted
+     * @return  The database ids of the inserted <code>Stueck</code>, -1 for the skipped ones
+     */
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    long[] insertStuecks(List<Stueck> stuecks);
 
     /**
      * Search for a <code>Stueck</code> with his name.
      * @param name  The name to be searched
      * @return      A {@code List<Stueck>} object which may content multiple elements
      */
-    @Query("SELECT * FROM stuecks WHERE sName = :name")
+    @Query("SELECT * FROM stuecks WHERE sName = :name AND +sDeleted = 0")
     List<Stueck> findStueck(String name);
 
     /**
-     * Gets all the <code>Stueck</code> records in database
-     * @return  A livedata list of <code>Stueck</code>
+     * Pages through the <code>Stueck</code> records matching a given Profile whose name matches a LIKE pattern,
+     * ignoring case, ordered by name.
+     * The pattern must be a literal prefix followed by '%', with '\' as escape character, so that the
+     * search name index is used.
+     * @param pattern       The LIKE pattern
+     * @param natureMask    The nature bits of the Profile to match
+     * @param styleMask     The style bits of the Profile to match
+     * @param criteriaMask  The criteria bits of the Profile to match
+     * @return  A PagingSource of the matching <code>Stueck</code>, invalidated when the table changes
+     */
+    @Query("SELECT * FROM stuecks WHERE sSearchName LIKE :pattern ESCAPE '\\' AND +sDeleted = 0 "
+            + "AND (sProfileMask & :natureMask) != 0 "
+            + "AND (sProfileMask & :styleMask) != 0 "
+            + "AND (sProfileMask & :criteriaMask) != 0 "
+            + "ORDER BY sSearchName")
+    PagingSource<Integer, Stueck> pageStuecksByPrefix(String pattern, int natureMask, int styleMask, int criteriaMask);
+
+    /**
+     * Pages through the <code>Stueck</code> records matching a given Profile whose name matches a full-text query.
+     * FTS4 has no ranking function : results are ranked with names starting with the searched text first,
+     * then shorter names first, i.e. names where the matched words weigh more.
+     * @param match         The full-text query, in the FTS4 MATCH syntax
+     * @param pattern       A LIKE pattern for names starting with the searched text, see
+     *                      {@link #pageStuecksByPrefix(String, int, int, int)}
+     * @param natureMask    The nature bits of the Profile to match
+     * @param styleMask     The style bits of the Profile to match
+     * @param criteriaMask  The criteria bits of the Profile to match
+     * @return  A PagingSource of the matching <code>Stueck</code>, invalidated when the table changes
+     */
+    @Query("SELECT stuecks.* FROM stuecks JOIN stuecks_fts ON stuecks.sId = stuecks_fts.rowid "
+            + "WHERE stuecks_fts MATCH :match AND +stuecks.sDeleted = 0 "
+            + "AND (stuecks.sProfileMask & :natureMask) != 0 "
+            + "AND (stuecks.sProfileMask & :styleMask) != 0 "
+            + "AND (stuecks.sProfileMask & :criteriaMask) != 0 "
+            + "ORDER BY (stuecks.sSearchName LIKE :pattern ESCAPE '\\') DESC, length(stuecks.sName), stuecks.sSearchName")
+    PagingSource<Integer, Stueck> pageStuecksByFullText(String match, String pattern, int natureMask, int styleMask, int criteriaMask);
+
+    /**
+     * Count the <code>Stueck</code> records. The count is read from the index of the soft-delete flag, and emitted
+     * again after each write to the table
+     * @return  A livedata number of records
+     */
+    @Query("SELECT COUNT(*) FROM stuecks WHERE sDeleted = 0")
+    LiveData<Integer> getStueckCount();
+
+    /**
+     * Get the name of a record
+     * @param id    The database id of the record
+     * @return  The name, or null if there is no such record or if it is soft-deleted
+     */
+    @Query("SELECT sName FROM stuecks WHERE sId = :id AND +sDeleted = 0")
+    String getName(int id);
+
+    /**
+     * Pages through the <code>Stueck</code> records whose Profile matches a given Profile, ordered by id.
+     * Matching is done in SQL on the profile mask, with the masks of the given Profile split
+     * by groups (see {@link Profile#matches(int)}).
+     * @param natureMask    The nature bits of the Profile to match
+     * @param styleMask     The style bits of the Profile to match
+     * @param criteriaMask  The criteria bits of the Profile to match
+     * @return  A PagingSource of the matching <code>Stueck</code>, invalidated when the table changes
+     */
+    @Query("SELECT * FROM stuecks WHERE +sDeleted = 0 AND (sProfileMask & :natureMask) != 0 "
+            + "AND (sProfileMask & :styleMask) != 0 "
+            + "AND (sProfileMask & :criteriaMask) != 0 "
+            + "ORDER BY sId")
+    PagingSource<Integer, Stueck> pageStuecksMatching(int natureMask, int styleMask, int criteriaMask);
+
+    /**
+     * Pages through the <code>Stueck</code> records whose Profile matches a given Profile, ordered by name
+     * ignoring case. The rows are read in the order of the search name index, which has the NOCASE collation.
+     * @param natureMask    The nature bits of the Profile to match
+     * @param styleMask     The style bits of the Profile to match
+     * @param criteriaMask  The criteria bits of the Profile to match
+     * @return  A PagingSource of the matching <code>Stueck</code>, invalidated when the table changes
+     */
+    @Query("SELECT * FROM stuecks WHERE +sDeleted = 0 AND (sProfileMask & :natureMask) != 0 "
+            + "AND (sProfileMask & :styleMask) != 0 "
+            + "AND (sProfileMask & :criteriaMask) != 0 "
+            + "ORDER BY sSearchName")
+    PagingSource<Integer, Stueck> pageStuecksByName(int natureMask, int styleMask, int criteriaMask);
+
+    /**
+     * Pages through the <code>Stueck</code> records whose Profile matches a given Profile, the most recently
+     * updated first. The rows are read in the order of the update day index, ids ordering the rows of a same day.
+     * @param natureMask    The nature bits of the Profile to match
+     * @param styleMask     The style bits of the Profile to match
+     * @param criteriaMask  The criteria bits of the Profile to match
+     * @return  A PagingSource of the matching <code>Stueck</code>, invalidated when the table changes
+     */
+    @Query("SELECT * FROM stuecks WHERE +sDeleted = 0 AND (sProfileMask & :natureMask) != 0 "
+            + "AND (sProfileMask & :styleMask) != 0 "
+            + "AND (sProfileMask & :criteriaMask) != 0 "
+            + "ORDER BY sUpdateDay DESC, sId DESC")
+    PagingSource<Integer, Stueck> pageStuecksByRecency(int natureMask, int styleMask, int criteriaMask);
+
+    /**
+     * Pages through the <code>Stueck</code> records whose Profile matches a given Profile and updated
+     * since a day, the most recently updated first. The day range is searched with the update day index.
+     * @param sinceDay      The first day, in days since 1970-01-01
+     * @param natureMask    The nature bits of the Profile to match
+     * @param styleMask     The style bits of the Profile to match
+     * @param criteriaMask  The criteria bits of the Profile to match
+     * @return  A PagingSource of the matching <code>Stueck</code>, invalidated when the table changes
+     */
+    @Query("SELECT * FROM stuecks WHERE sUpdateDay >= :sinceDay AND +sDeleted = 0 "
+            + "AND (sProfileMask & :natureMask) != 0 "
+            + "AND (sProfileMask & :styleMask) != 0 "
+            + "AND (sProfileMask & :criteriaMask) != 0 "
+            + "ORDER BY sUpdateDay DESC, sId DESC")
+    PagingSource<Integer, Stueck> pageStuecksUpdatedSince(int sinceDay, int natureMask, int styleMask, int criteriaMask);
+
+    /**
+     * Get the id and the profile mask of all records, to build the profile buckets index
+     * @return A cursor with the id in column 0 and the profile mask in column 1, to be closed by the caller
+     */
+    @Query("SELECT sId, sProfileMask FROM stuecks WHERE +sDeleted = 0")
+    Cursor getIdsAndMasks();
+
+    /**
+     * Get the highest id in use, soft-deleted records included
+     * @return  The highest id, 0 if the table is empty
+     */
+    @Query("SELECT MAX(sId) FROM stuecks")
+    int getMaxId();
+
+    /**
+     * Get the id and the weight of the records whose weight is not a given weight, for the weighted draws
+     * @param weight    The weight to skip, usually Stueck.DEFAULT_WEIGHT
+     * @return A cursor with the id in column 0 and the weight in column 1, ordered by id, to be closed by the caller
+     */
+    @Query("SELECT sId, sWeight FROM stuecks WHERE sWeight != :weight AND +sDeleted = 0 ORDER BY sId")
+    Cursor getIdsAndWeightsOtherThan(int weight);
+
+    /**
+     * Get the id, the profile mask, the name and the weight of the records following an id, to walk the table
+     * by chunks. The rows are read in the order of the primary key from the given id, without skipping the previous rows
+     * @param afterId   The id of the last record of the previous chunk, 0 for the first chunk
+     * @param limit     The maximum number of records to return
+     * @return A cursor with the id in column 0, the profile mask in column 1, the name in column 2 and the weight
+     * in column 3, ordered by id, to be closed by the caller
+     */
+    @Query("SELECT sId, sProfileMask, sName, sWeight FROM stuecks WHERE sId > :afterId AND +sDeleted = 0 "
+            + "ORDER BY sId LIMIT :limit")
+    Cursor getStuecksAfter(int afterId, int limit);
+
+    /**
+     * Get the id, the name and the profile mask of the records with the given names, using the name index
+     * @param names The names, at most StueckImporter.MAX_QUERY_ARGS
+     * @return A cursor with the id in column 0, the name in column 1 and the profile mask in column 2,
+     * to be closed by the caller
+     */
+    @Query("SELECT sId, sName, sProfileMask FROM stuecks WHERE sName IN (:names) AND +sDeleted = 0")
+    Cursor getIdsAndMasksByName(List<String> names);
+
+    /**
+     * Change the profile of a record
+     * @param id        The database id of the record
+     * @param mask      The new profile mask
+     * @param updateDay The update day, in days since 1970-01-01
+     */
+    @Query("UPDATE stuecks SET sProfileMask = :mask, sUpdateDay = :updateDay WHERE sId = :id")
+    void updateProfileMask(int id, int mask, int updateDay);
+
+    /**
+     * Delete the records matching the given database ids
+     * @param ids   The database ids, at most StueckImporter.MAX_QUERY_ARGS
+     */
+    @Query("DELETE FROM stuecks WHERE sId IN (:ids)")
+    void deleteStuecks(int[] ids);
+
+    /**
+     * Set the soft-delete flag of a record. A soft-deleted record keeps its name until it is purged,
+     * and is not returned by the queries
+     * @param id        The database id of the record
+     * @param deleted   true to soft-delete the record, false to restore it
+     * @return  The number of updated records
+     */
+    @Query("UPDATE stuecks SET sDeleted = :deleted WHERE sId = :id")
+    int setDeleted(int id, boolean deleted);
+
+    /**
+     * Get the profile mask of a record, soft-deleted or not
+     * @param id    The database id of the record
+     * @return  The profile mask
+     */
+    @Query("SELECT sProfileMask FROM stuecks WHERE sId = :id")
+    int getProfileMask(int id);
+
+    /**
+     * Add an entry to the undo journal
+     * @param entry The entry
+     */
+    @Insert
+    void insertUndoEntry(UndoEntry entry);
+
+    /**
+     * Get the last entry of the undo journal
+     * @return  The entry of the last deletion, or null if the journal is empty
+     */
+    @Query("SELECT * FROM undo_journal ORDER BY uId DESC LIMIT 1")
+    UndoEntry getLastUndoEntry();
+
+    /**
+     * Remove an entry from the undo journal
+     * @param id    The id of the entry
+     */
+    @Query("DELETE FROM undo_journal WHERE uId = :id")
+    void deleteUndoEntry(int id);
+
+    /**
+     * Remove the entries of a record from the undo journal
+     * @param stueckId  The id of the soft-deleted record
+     * @return  The number of removed entries, 0 if its deletion can no longer be undone
+     */
+    @Query("DELETE FROM undo_journal WHERE uStueckId = :stueckId")
+    int deleteUndoEntriesOf(int stueckId);
+
+    /**
+     * Remove the oldest entries of the undo journal, their deletions can no longer be undone
+     * @param maxEntries    The number of entries to keep
+     * @return  The number of removed entries
+     */
+    @Query("DELETE FROM undo_journal WHERE uId NOT IN (SELECT uId FROM undo_journal ORDER BY uId DESC LIMIT :maxEntries)")
+    int trimUndoJournal(int maxEntries);
+
+    /**
+     * Get the number of deletions which can be undone
+     * @return  A livedata number of entries of the undo journal
+     */
+    @Query("SELECT COUNT(*) FROM undo_journal")
+    LiveData<Integer> getUndoCount();
+
+    /**
+     * Purge soft-deleted records whose deletion can no longer be undone, i.e. absent from the undo journal
+     * @param limit The maximum number of records to purge
+     * @return  The number of purged records
+     */
+    @Query("DELETE FROM stuecks WHERE sId IN (SELECT sId FROM stuecks WHERE sDeleted = 1 "
+            + "AND sId NOT IN (SELECT uStueckId FROM undo_journal) LIMIT :limit)")
+    int purgeDeleted(int limit);
+
+    /**
+     * Remove the undo journal entry of the soft-deleted record with a name, if any, before the record is purged
+     * @param name  The name
+     */
+    @Query("DELETE FROM undo_journal WHERE uStueckId IN (SELECT sId FROM stuecks WHERE sName = :name AND sDeleted = 1)")
+    void deleteUndoEntriesByName(String name);
+
+    /**
+     * Purge the soft-deleted record with a name, if any, so that the name can be used again.
+     * Its undo journal entry is to be removed first
+     * @param name  The name
+     */
+    @Query("DELETE FROM stuecks WHERE sName = :name AND sDeleted = 1")
+    void purgeDeletedByName(String name);
+
+    /**
+     * Remove the undo journal entries of the soft-deleted records with the given names, before they are purged
+     * @param names The names, at most StueckImporter.MAX_QUERY_ARGS
+     */
+    @Query("DELETE FROM undo_journal WHERE uStueckId IN "
+            + "(SELECT sId FROM stuecks WHERE sName IN (:names) AND sDeleted = 1)")
+    void deleteUndoEntriesByNames(List<String> names);
+
+    /**
+     * Purge the soft-deleted records with the given names, so that the names can be imported.
+     * Their undo journal entries are to be removed first
+     * @param names The names, at most StueckImporter.MAX_QUERY_ARGS
+     */
+    @Query("DELETE FROM stuecks WHERE sName IN (:names) AND sDeleted = 1")
+    void purgeDeletedByNames(List<String> names);
+
+    /**
+     * Count the soft-deleted records, whether their deletion can be undone or not
+     * @return  The number of soft-deleted records
      */
-    @Query("SELECT * FROM stuecks")
-    LiveData<List<Stueck>> getAllStuecks();
+    @Query("SELECT COUNT(*) FROM stuecks WHERE sDeleted = 1")
+    int countDeleted();
 
     /**
      * Delete the <code>Stueck</code> database records matching the given database id
@@ -41,9 +335,10 @@ public interface StueckDao {
     void deleteStueck(int id);
 
     /**
-     * Update the record in database
+     * Update the record in database. Nothing is updated if the new name is used by another record
      * @param stueck  The <code>Stueck</code> object to be updated
+     * @return  The number of updated records
      */
-    @Update
-    void updateStueck(Stueck stueck);
+    @Update(onConflict = OnConflictStrategy.IGNORE)
+    int updateStueck(Stueck stueck);
 }
@@ -0,0 +1,157 @@
+package com.technoprimates.captain.db;
+
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Exports all the <code>Stueck</code> records to a channel, in one of two formats :
+ * - FORMAT_TEXT, the fill.txt line format read by {@link StueckImporter} : the profile as NB_CHECKBOX chars,
+ * 'X' for an allowed usage and 'Y' otherwise, immediately followed by the name, in ISO-8859-1.
+ * Chars of the name which cannot be encoded in ISO-8859-1 are written as '?'
+ * - FORMAT_BINARY, a compact format starting with the 4 bytes "STK1", then for each record the id as
+ * an unsigned varint, the profile mask on 2 bytes big-endian, and the name as a varint length followed by
+ * its UTF-8 bytes
+ *
+ * The table is walked by id with cursors of CHUNK_SIZE rows, and the records are encoded in a single direct
+ * buffer written to the channel when full, so that memory use does not depend on the size of the table.
+ * The export does not hold a transaction : each record is exported at most once, but the records written while
+ * the table is walked may or may not be exported.
+ */
+public class StueckExporter {
+
+    // Export formats
+    public static final int FORMAT_TEXT = 0;
+    public static final int FORMAT_BINARY = 1;
+
+    /**
+     * Result of an export which could not be written
+     */
+    public static final int EXPORT_FAILED = -1;
+
+    /**
+     * Interface definition for a callback receiving the result of an export
+     */
+    public interface ExportListener {
+
+        /**
+         * Called when the export is finished
+         * @param count The number of exported records, or EXPORT_FAILED
+         */
+        void onExportDone(int count);
+    }
+
+    /* "STK1", identifies the binary format */
+    private static final int MAGIC = 0x53544B31;
+
+    /* Number of rows read by each cursor */
+    private static final int CHUNK_SIZE = 5000;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /* Longest encoding of an id and a name length, as varints */
+    private static final int MAX_VARINT_SIZE = 5;
+
+    private final StueckDao mDao;
+
+    StueckExporter(@NonNull StueckDao dao) {
+        mDao = dao;
+    }
+
+    /**
+     * Write all the <code>Stueck</code> records, ordered by id. Must not be called on the main thread, nor on
+     * the writer thread, which would be held up by a long export.
+     * @param out       The channel to write to, not closed
+     * @param format    FORMAT_TEXT or FORMAT_BINARY
+     * @return The number of exported records
+     * @throws IOException if the channel cannot be written
+     */
+    public int export(@NonNull WritableByteChannel out, int format) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        if (format == FORMAT_BINARY) buffer.putInt(MAGIC);
+        int count = 0;
+        int lastId = 0;
+        while (true) {
+            int rows = 0;
+            try (Cursor cursor = mDao.getStuecksAfter(lastId, CHUNK_SIZE)) {
+                while (cursor.moveToNext()) {
+                    lastId = cursor.getInt(0);
+                    int mask = cursor.getInt(1);
+                    String name = cursor.getString(2);
+                    if (name == null) name = "";
+                    if (format == FORMAT_BINARY) {
+                        writeBinary(out, buffer, lastId, mask, name);
+                    } else {
+                        writeText(out, buffer, mask, name);
+                    }
+                    rows++;
+                }
+            }
+            count += rows;
+            if (rows < CHUNK_SIZE) break;
+        }
+        flush(out, buffer);
+        return count;
+    }
+
+    /* Write a record in the fill.txt line format */
+    private static void writeText(WritableByteChannel out, ByteBuffer buffer, int mask, String name) throws IOException {
+        reserve(out, buffer, Profile.NB_CHECKBOX);
+        for (int i = 0; i < Profile.NB_CHECKBOX; i++)
+            buffer.put(((mask & (1 << i)) != 0) ? (byte) 'X' : (byte) 'Y');
+        for (int i = 0; i < name.length(); i++) {
+            if (!buffer.hasRemaining()) flush(out, buffer);
+            char c = name.charAt(i);
+            buffer.put((c <= 0xFF) ? (byte) c : (byte) '?');
+        }
+        reserve(out, buffer, 1);
+        buffer.put((byte) '\n');
+    }
+
+    /* Write a record in the binary format */
+    private static void writeBinary(WritableByteChannel out, ByteBuffer buffer, int id, int mask, String name)
+            throws IOException {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        reserve(out, buffer, 2 * MAX_VARINT_SIZE + 2);
+        putVarint(buffer, id);
+        buffer.putShort((short) mask);
+        putVarint(buffer, bytes.length);
+        if (bytes.length <= buffer.remaining()) {
+            buffer.put(bytes);
+        } else {
+            // longer than the buffer : written directly
+            flush(out, buffer);
+            writeFully(out, ByteBuffer.wrap(bytes));
+        }
+    }
+
+    /* Write an unsigned int as a varint : 7 bits per byte, low bits first, high bit set on all bytes but the last */
+    private static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /* Make room for n bytes in the buffer */
+    private static void reserve(WritableByteChannel out, ByteBuffer buffer, int n) throws IOException {
+        if (buffer.remaining() < n) flush(out, buffer);
+    }
+
+    /* Write the content of the buffer and empty it */
+    private static void flush(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        writeFully(out, buffer);
+        buffer.clear();
+    }
+
+    private static void writeFully(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) out.write(buffer);
+    }
+}
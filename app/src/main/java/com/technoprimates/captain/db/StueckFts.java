@@ -0,0 +1,27 @@
+package com.technoprimates.captain.db;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Fts4;
+import androidx.room.FtsOptions;
+
+/**
+ * Full-text index over the names of the <code>Stueck</code> records.
+ * <p>This is an external content table : it stores no copy of the names, and is kept in sync
+ * with the stuecks table by triggers. Its rowid is the id of the indexed <code>Stueck</code>.
+ * The unicode61 tokenizer folds case and diacritics.</p>
+ */
+@Fts4(contentEntity = Stueck.class, tokenizer = FtsOptions.TOKENIZER_UNICODE61)
+@Entity(tableName = "stuecks_fts")
+public class StueckFts {
+
+    /* The indexed name */
+    @ColumnInfo(name = "sName")
+    private String name;
+
+    public StueckFts(String name) {this.name = name;}
+
+    public String getName() {return this.name;}
+
+    public void setName(String name) {this.name = name;}
+}
@@ -0,0 +1,559 @@
+package com.technoprimates.captain.db;
+
+import android.database.Cursor;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Imports <code>Stueck</code> records from a text source in the fill.txt line format.
+ *
+ * Each line holds a profile of NB_CHECKBOX chars ('X' for an allowed usage, 'Y' or ' ' otherwise)
+ * immediately followed by the name, in ISO-8859-1. Blank lines are skipped. The source may be compressed
+ * with gzip, which is detected from its first bytes. The source is streamed through a pipeline of three stages,
+ * at most QUEUE_CAPACITY chunks of about CHUNK_BYTES bytes being in flight, so that memory use does not depend
+ * on the size of the source :
+ * - a reader stage, decompressing the source if needed and splitting it in chunks ending on a line boundary
+ * - parse tasks, run in parallel on a fork-join pool, one per chunk : decoding and splitting the lines,
+ * validating them and building the <code>Stueck</code> objects. Invalid lines are rejected
+ * - an insert stage, run by the calling thread, inserting the chunks in the order of the source and
+ * reporting the progress
+ *
+ * Each chunk is committed in its own transaction, submitted as a separate task to the writer thread : the writes
+ * of the user run in between the chunks instead of waiting for the whole source, and the database journal stays
+ * bounded by the size of a chunk. A cancelled or failed import keeps the chunks committed before.
+ *
+ * The import mode tells what is done with the names already in the table :
+ * - MODE_ADD : lines whose name already exists in the table are skipped
+ * - MODE_SYNC : the existing rows of each chunk are looked up by name, and only the rows whose profile changed
+ * are updated, so that syncing a source again only writes the changed rows. The last line of a repeated name wins
+ * - MODE_SYNC_DELETE : as MODE_SYNC, then the rows whose name is absent from the source are deleted, in a single
+ * last transaction. The rows inserted by the user during the import are kept
+ * The soft-deleted rows whose name is in the source are purged with each chunk, so that their names can be
+ * imported : only these deletions can no longer be undone after the import.
+ */
+public class StueckImporter {
+
+    public static final String TAG = "STUECK IMPORTER";
+
+    /**
+     * Size of the chunks of the source parsed and inserted at once, rounded to a line boundary
+     */
+    public static final int CHUNK_BYTES = 32 * 1024;
+
+    /**
+     * Maximum number of rejected lines kept in the report, the next ones are only counted
+     */
+    public static final int MAX_REPORTED_REJECTS = 100;
+
+    // Import modes
+    public static final int MODE_ADD = 0;
+    public static final int MODE_SYNC = 1;
+    public static final int MODE_SYNC_DELETE = 2;
+
+    /**
+     * Maximum number of names or ids bound in a single query, below the SQLite limit of 999 variables
+     */
+    public static final int MAX_QUERY_ARGS = 500;
+
+    /* Number of parse tasks running in parallel, and number of chunks in flight between the reader and the insert stage */
+    private static final int PARALLELISM = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    private static final int QUEUE_CAPACITY = 2 * PARALLELISM;
+
+    /* The first two bytes of a gzip stream */
+    private static final int GZIP_MAGIC_1 = 0x1f;
+    private static final int GZIP_MAGIC_2 = 0x8b;
+
+    /**
+     * Interface definition for a callback receiving the progress of an import
+     */
+    public interface ProgressListener {
+
+        /**
+         * Called on the importing thread when the import starts, after each inserted chunk, and when the import is finished
+         * @param report The current state of the import
+         */
+        void onProgress(@NonNull ImportReport report);
+    }
+
+    private final StueckDao mDao;
+    private final Consumer<Runnable> mWriteRunner;
+    private final ProfileBuckets mBuckets;
+
+    /* The writeRunner runs its Runnable within a transaction on the writer thread, and returns once it is committed.
+    If the Runnable throws, the transaction is rolled back and the exception is thrown again by the writeRunner */
+    StueckImporter(@NonNull StueckDao dao, @NonNull Consumer<Runnable> writeRunner, @NonNull ProfileBuckets buckets) {
+        mDao = dao;
+        mWriteRunner = writeRunner;
+        mBuckets = buckets;
+    }
+
+    /**
+     * Parse and insert all the lines of a source. Must not be called on the main thread, nor on the writer thread
+     * which commits the chunks.
+     * @param source    The source, plain or compressed with gzip, read until its end but not closed
+     * @param totalBytes The size of the source as stored, compressed or not, or ImportReport.UNKNOWN_SIZE
+     * @param mode      MODE_ADD, MODE_SYNC or MODE_SYNC_DELETE
+     * @param updateDay The update day to set in all inserted or updated <code>Stueck</code>, in days since 1970-01-01
+     * @param cancelled Set to true to cancel the import, the chunks already committed being kept
+     * @param listener  The listener receiving the progress, or null
+     * @return The final report, in state STATE_DONE, STATE_CANCELLED, or STATE_FAILED if the source cannot be read
+     * or the lines cannot be parsed or inserted
+     */
+    @NonNull
+    public ImportReport importStream(@NonNull InputStream source, long totalBytes, int mode, int updateDay,
+                                     @NonNull AtomicBoolean cancelled, @Nullable ProgressListener listener) {
+        // the stored bytes are counted, to be compared with totalBytes
+        CountingInputStream input = new CountingInputStream(source);
+        BlockingQueue<Future<StueckChunk>> stuecks = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        Progress progress = new Progress(input, totalBytes, mode);
+        if (listener != null) listener.onProgress(progress.report(ImportReport.STATE_RUNNING));
+
+        ExecutorService reader = Executors.newSingleThreadExecutor(r -> new Thread(r, "stueck-import-reader"));
+        ForkJoinPool parsers = new ForkJoinPool(PARALLELISM);
+        try {
+            reader.execute(() -> readStage(input, stuecks, parsers, updateDay, cancelled));
+            insertStage(stuecks, updateDay, cancelled, progress, listener);
+        } catch (ImportCancelledException e) {
+            return progress.report(ImportReport.STATE_CANCELLED);
+        } catch (ImportException e) {
+            Log.e(TAG, "Cannot read the import source", e.getCause());
+            return progress.report(ImportReport.STATE_FAILED);
+        } catch (RuntimeException e) {
+            // a parse task or the database failed, the transaction of the current chunk is rolled back
+            Log.e(TAG, "Import failed", e);
+            reloadBuckets();
+            return progress.report(ImportReport.STATE_FAILED);
+        } finally {
+            // stops the reader still waiting on the queue
+            reader.shutdownNow();
+            parsers.shutdownNow();
+        }
+        return progress.report(ImportReport.STATE_DONE);
+    }
+
+    /**
+     * Check whether a line in the fill.txt format can be imported. Blank lines are to be skipped before
+     * @param line  The line to check
+     * @return 0 if the line is valid, RejectedLine.REASON_NO_NAME or RejectedLine.REASON_INVALID_PROFILE otherwise
+     */
+    public static int checkLine(@NonNull String line) {
+        if (line.length() <= Profile.NB_CHECKBOX) return ImportReport.RejectedLine.REASON_NO_NAME;
+        boolean blankName = true;
+        for (int i = Profile.NB_CHECKBOX; (i < line.length()) && blankName; i++)
+            blankName = Character.isWhitespace(line.charAt(i));
+        if (blankName) return ImportReport.RejectedLine.REASON_NO_NAME;
+        for (int i = 0; i < Profile.NB_CHECKBOX; i++) {
+            char c = line.charAt(i);
+            if ((c != 'X') && (c != 'Y') && (c != ' ')) return ImportReport.RejectedLine.REASON_INVALID_PROFILE;
+        }
+        if (!Profile.isValidProfileString(line.substring(0, Profile.NB_CHECKBOX)))
+            return ImportReport.RejectedLine.REASON_INVALID_PROFILE;
+        return 0;
+    }
+
+    /**
+     * Builds a <code>Stueck</code> from a line in the fill.txt format
+     * @param line  The line to parse
+     * @return A new <code>Stueck</code>, or null if the line is rejected by checkLine
+     */
+    public static Stueck parseLine(@NonNull String line) {
+        return (checkLine(line) != 0) ? null : newStueck(line);
+    }
+
+    /* Build a Stueck from a checked line. Only the 'X' chars are read, 'Y' chars stand for disallowed usages */
+    private static Stueck newStueck(String line) {
+        return new Stueck(line.substring(Profile.NB_CHECKBOX), Profile.of(Profile.maskFromString(line)));
+    }
+
+    /* Reader stage : split the source in chunks ending on a line boundary, submit a parse task per chunk,
+    and end with an empty chunk carrying the read error if any, so that the insert stage always gets a last chunk.
+    The tasks are queued in the order of the source */
+    private static void readStage(InputStream input, BlockingQueue<Future<StueckChunk>> out, ForkJoinPool parsers,
+                                  int updateDay, AtomicBoolean cancelled) {
+        Exception error = null;
+        try {
+            // not closed, the source is closed by the caller
+            InputStream in = decompressed(input);
+            byte[] chunk = new byte[CHUNK_BYTES];
+            int length = 0;
+            int n;
+            while (!cancelled.get() && ((n = in.read(chunk, length, chunk.length - length)) != -1)) {
+                length += n;
+                if (length < chunk.length) continue;
+                int end = lastLineEnd(chunk, length);
+                if (end < 0) {
+                    // a line longer than the chunk
+                    chunk = Arrays.copyOf(chunk, chunk.length * 2);
+                    continue;
+                }
+                byte[] next = new byte[CHUNK_BYTES];
+                int rest = length - end;
+                if (rest > next.length) next = new byte[rest * 2];
+                System.arraycopy(chunk, end, next, 0, rest);
+                out.put(submitParse(parsers, chunk, end, updateDay));
+                chunk = next;
+                length = rest;
+            }
+            if ((length > 0) && !cancelled.get()) out.put(submitParse(parsers, chunk, length, updateDay));
+        } catch (IOException | RuntimeException e) {
+            error = e;
+        } catch (InterruptedException e) {
+            // the import is over
+            return;
+        }
+        try {
+            out.put(CompletableFuture.completedFuture(new StueckChunk(null, 0, null, 0, error)));
+        } catch (InterruptedException ignored) {
+            // the import is over
+        }
+    }
+
+    /* Decompress the source if it starts with the gzip magic bytes */
+    private static InputStream decompressed(InputStream input) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(input, CHUNK_BYTES);
+        in.mark(2);
+        int b1 = in.read();
+        int b2 = in.read();
+        in.reset();
+        if ((b1 == GZIP_MAGIC_1) && (b2 == GZIP_MAGIC_2)) return new GZIPInputStream(in, CHUNK_BYTES);
+        return in;
+    }
+
+    /* The position following the last '\n' of a chunk, or -1 if there is none */
+    private static int lastLineEnd(byte[] bytes, int length) {
+        for (int i = length - 1; i >= 0; i--)
+            if (bytes[i] == '\n') return i + 1;
+        return -1;
+    }
+
+    private static Future<StueckChunk> submitParse(ForkJoinPool parsers, byte[] bytes, int length, int updateDay) {
+        return parsers.submit(() -> parseChunk(bytes, length, updateDay));
+    }
+
+    /* Parse task : split a chunk in lines, then check and parse them, keeping at most MAX_REPORTED_REJECTS
+    rejected lines. The lines are numbered from 1 within the chunk, the insert stage adds the lines of the previous chunks */
+    private static StueckChunk parseChunk(byte[] bytes, int length, int updateDay) {
+        List<Stueck> stuecks = new ArrayList<>();
+        List<ImportReport.RejectedLine> rejects = null;
+        int rejectedCount = 0;
+        int lineCount = 0;
+        int start = 0;
+        while (start < length) {
+            int end = start;
+            while ((end < length) && (bytes[end] != '\n')) end++;
+            int next = end + 1;
+            // lines ending with "\r\n"
+            if ((end > start) && (bytes[end - 1] == '\r')) end--;
+            String line = new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+            start = next;
+            lineCount++;
+            if (isBlank(line)) continue;
+            int reason = checkLine(line);
+            if (reason == 0) {
+                Stueck stueck = newStueck(line);
+                stueck.setUpdateDay(updateDay);
+                stuecks.add(stueck);
+            } else {
+                rejectedCount++;
+                if (rejectedCount <= MAX_REPORTED_REJECTS) {
+                    if (rejects == null) rejects = new ArrayList<>();
+                    rejects.add(new ImportReport.RejectedLine(lineCount, reason, line));
+                }
+            }
+        }
+        return new StueckChunk(stuecks, lineCount, rejects, rejectedCount, null);
+    }
+
+    private static boolean isBlank(String line) {
+        for (int i = 0; i < line.length(); i++)
+            if (!Character.isWhitespace(line.charAt(i))) return false;
+        return true;
+    }
+
+    /* Insert stage : insert or sync, and index the chunks until the last one, a transaction per chunk */
+    private void insertStage(BlockingQueue<Future<StueckChunk>> in, int updateDay, AtomicBoolean cancelled,
+                             Progress progress, @Nullable ProgressListener listener) {
+        // the ids of the rows named in the source, kept when deleting the absent names
+        BitSet namedIds = (progress.mode == MODE_SYNC_DELETE) ? new BitSet() : null;
+        // the rows inserted by the user during the import have higher ids, they are not deleted as absent
+        int lastIdBefore = (namedIds != null) ? mDao.getMaxId() : 0;
+        while (true) {
+            StueckChunk chunk;
+            try {
+                chunk = in.take().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ImportCancelledException();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Cannot parse import chunk", e.getCause());
+            }
+            // the reader stage also stops early when cancelled
+            if (cancelled.get()) throw new ImportCancelledException();
+            if (chunk.stuecks == null) {
+                if (chunk.error != null) throw new ImportException(chunk.error);
+                // a source without any valid line, e.g. the wrong file, does not empty the table
+                if ((namedIds == null) || (progress.validCount() == 0)) return;
+                try {
+                    mWriteRunner.accept(() -> deleteAbsent(namedIds, lastIdBefore, progress));
+                } catch (RuntimeException e) {
+                    progress.deletedCount = 0;
+                    throw e;
+                }
+                return;
+            }
+
+            progress.mark();
+            try {
+                mWriteRunner.accept(() -> {
+                    // most chunks do not have to look up the soft-deleted names
+                    if (mDao.countDeleted() > 0) purgeDeletedNames(chunk.stuecks);
+                    if (progress.mode == MODE_ADD) {
+                        insertChunk(chunk.stuecks, null, progress);
+                    } else {
+                        syncChunk(chunk.stuecks, updateDay, namedIds, progress);
+                    }
+                });
+            } catch (RuntimeException e) {
+                // the chunk is rolled back, the report only counts the committed chunks
+                progress.reset();
+                throw e;
+            }
+            if (chunk.rejects != null) {
+                for (ImportReport.RejectedLine reject : chunk.rejects) {
+                    if (progress.rejects.size() == MAX_REPORTED_REJECTS) break;
+                    // numbered from the start of the source
+                    progress.rejects.add(new ImportReport.RejectedLine(progress.lineCount + reject.getLineNumber(),
+                            reject.getReason(), reject.getText()));
+                }
+            }
+            progress.lineCount += chunk.lineCount;
+            progress.rejectedCount += chunk.rejectedCount;
+            if (listener != null) listener.onProgress(progress.report(ImportReport.STATE_RUNNING));
+        }
+    }
+
+    /* A soft-deleted row keeps its name in the unique name index : purge the soft-deleted rows named in a chunk,
+    with their undo journal entries. These rows are not in the buckets */
+    private void purgeDeletedNames(List<Stueck> stuecks) {
+        List<String> names = new ArrayList<>(MAX_QUERY_ARGS);
+        for (int from = 0; from < stuecks.size(); from += MAX_QUERY_ARGS) {
+            names.clear();
+            for (int i = from; i < Math.min(from + MAX_QUERY_ARGS, stuecks.size()); i++) names.add(stuecks.get(i).getName());
+            mDao.deleteUndoEntriesByNames(names);
+            mDao.purgeDeletedByNames(names);
+        }
+    }
+
+    /* Insert the Stücks of a chunk, skipping the existing names */
+    private void insertChunk(List<Stueck> stuecks, @Nullable BitSet namedIds, Progress progress) {
+        if (stuecks.isEmpty()) return;
+        long[] ids = mDao.insertStuecks(stuecks);
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] == -1) {
+                progress.duplicateCount++;
+            } else {
+                mBuckets.put((int) ids[i], stuecks.get(i).getProfileMask());
+                if (namedIds != null) namedIds.set((int) ids[i]);
+                progress.insertedCount++;
+            }
+        }
+    }
+
+    /* Look up the names of a chunk with the name index, update the rows whose profile changed and insert the new names.
+    The last line of a name wins, whether the name exists or not : the previous lines are counted as duplicates */
+    private void syncChunk(List<Stueck> chunkStuecks, int updateDay, @Nullable BitSet namedIds, Progress progress) {
+        Map<String, Stueck> lastByName = new LinkedHashMap<>(chunkStuecks.size() * 2);
+        for (Stueck stueck : chunkStuecks) lastByName.put(stueck.getName(), stueck);
+        progress.duplicateCount += chunkStuecks.size() - lastByName.size();
+        List<Stueck> stuecks = new ArrayList<>(lastByName.values());
+
+        // name -> {id, mask} of the existing rows
+        Map<String, int[]> existing = new HashMap<>(stuecks.size() * 2);
+        List<String> names = new ArrayList<>(MAX_QUERY_ARGS);
+        for (int from = 0; from < stuecks.size(); from += MAX_QUERY_ARGS) {
+            names.clear();
+            for (int i = from; i < Math.min(from + MAX_QUERY_ARGS, stuecks.size()); i++) names.add(stuecks.get(i).getName());
+            try (Cursor cursor = mDao.getIdsAndMasksByName(names)) {
+                while (cursor.moveToNext())
+                    existing.put(cursor.getString(1), new int[]{cursor.getInt(0), cursor.getInt(2)});
+            }
+        }
+
+        List<Stueck> newStuecks = new ArrayList<>();
+        for (Stueck stueck : stuecks) {
+            int[] row = existing.get(stueck.getName());
+            if (row == null) {
+                newStuecks.add(stueck);
+                continue;
+            }
+            if (namedIds != null) namedIds.set(row[0]);
+            int mask = stueck.getProfileMask();
+            if (row[1] == mask) {
+                progress.duplicateCount++;
+            } else {
+                mDao.updateProfileMask(row[0], mask, updateDay);
+                mBuckets.put(row[0], mask);
+                progress.updatedCount++;
+            }
+        }
+        insertChunk(newStuecks, namedIds, progress);
+    }
+
+    /* Delete the rows up to lastId whose id is not among the ids named in the source. Run in a single transaction */
+    private void deleteAbsent(BitSet namedIds, int lastId, Progress progress) {
+        int[] absentIds = new int[64];
+        int count = 0;
+        try (Cursor cursor = mDao.getIdsAndMasks()) {
+            while (cursor.moveToNext()) {
+                int id = cursor.getInt(0);
+                if ((id > lastId) || namedIds.get(id)) continue;
+                if (count == absentIds.length) absentIds = Arrays.copyOf(absentIds, count * 2);
+                absentIds[count++] = id;
+            }
+        }
+        for (int from = 0; from < count; from += MAX_QUERY_ARGS)
+            mDao.deleteStuecks(Arrays.copyOfRange(absentIds, from, Math.min(from + MAX_QUERY_ARGS, count)));
+        for (int i = 0; i < count; i++) mBuckets.remove(absentIds[i]);
+        progress.deletedCount = count;
+    }
+
+    /* After a rollback, the profile buckets hold the ids of the rows which were not committed : load them again,
+    on the writer thread so that no write is missed */
+    private void reloadBuckets() {
+        mWriteRunner.accept(() -> {
+            try (Cursor cursor = mDao.getIdsAndMasks()) {
+                mBuckets.load(cursor);
+            }
+        });
+    }
+
+    /* A chunk of parsed lines. The last chunk of a source has no Stueck, and carries the read error if any */
+    private static final class StueckChunk {
+        final List<Stueck> stuecks;
+        final int lineCount;
+        final List<ImportReport.RejectedLine> rejects;
+        final int rejectedCount;
+        final Exception error;
+
+        StueckChunk(List<Stueck> stuecks, int lineCount, List<ImportReport.RejectedLine> rejects,
+                    int rejectedCount, Exception error) {
+            this.stuecks = stuecks;
+            this.lineCount = lineCount;
+            this.rejects = rejects;
+            this.rejectedCount = rejectedCount;
+            this.error = error;
+        }
+    }
+
+    /* The counts of an import, only accessed by the insert stage and the chunk transactions it waits for */
+    private static final class Progress {
+        final CountingInputStream input;
+        final long totalBytes;
+        final int mode;
+        long lineCount;
+        int insertedCount;
+        int duplicateCount;
+        int updatedCount;
+        int deletedCount;
+        long rejectedCount;
+        final List<ImportReport.RejectedLine> rejects = new ArrayList<>();
+        // the counts of the committed chunks, restored when a chunk is rolled back
+        private final int[] marked = new int[3];
+
+        Progress(CountingInputStream input, long totalBytes, int mode) {
+            this.input = input;
+            this.totalBytes = totalBytes;
+            this.mode = mode;
+        }
+
+        /* The number of imported lines, whether they were inserted, updated or already in the table */
+        long validCount() {
+            return insertedCount + duplicateCount + updatedCount;
+        }
+
+        void mark() {
+            marked[0] = insertedCount;
+            marked[1] = duplicateCount;
+            marked[2] = updatedCount;
+        }
+
+        void reset() {
+            insertedCount = marked[0];
+            duplicateCount = marked[1];
+            updatedCount = marked[2];
+        }
+
+        ImportReport report(int state) {
+            // the rejected lines are only copied in the final report
+            List<ImportReport.RejectedLine> reportedRejects = (state == ImportReport.STATE_RUNNING)
+                    ? Collections.emptyList() : new ArrayList<>(rejects);
+            return new ImportReport(state, mode, lineCount, insertedCount, duplicateCount, updatedCount,
+                    deletedCount, rejectedCount, reportedRejects, input.count, totalBytes);
+        }
+    }
+
+    /* Counts the bytes read from the source, for the progress */
+    private static final class CountingInputStream extends FilterInputStream {
+        volatile long count;
+
+        CountingInputStream(InputStream in) {super(in);}
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    /* Unchecked wrapper carrying the error of the reader stage out of the insert stage */
+    private static class ImportException extends RuntimeException {
+        ImportException(Exception cause) {super(cause);}
+    }
+
+    /* Thrown out of the insert stage when the import is cancelled */
+    private static class ImportCancelledException extends RuntimeException {
+        ImportCancelledException() {super("Import cancelled");}
+    }
+}
@@ -1,27 +1,91 @@
 package com.technoprimates.captain.db;
 
 import android.app.Application;
+import android.content.res.AssetFileDescriptor;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
 import androidx.lifecycle.LiveData;
+import androidx.paging.PagingSource;
 
-import java.util.List;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 public class StueckRepository {
 
-    /** Livedata list of all the stuecks in the database   */
-    private final LiveData<List<Stueck>> allStuecksList;
+    public static final String TAG = "STUECK REPOSITORY";
 
-    /** Dao instance */
+    /** Number of deletions which can be undone, the rows of older deletions are purged */
+    public static final int MAX_UNDO_ENTRIES = 50;
+
+    /** Number of soft-deleted rows purged in each compaction transaction */
+    private static final int COMPACTION_BATCH_SIZE = 500;
+
+    /** The application, used to access the assets */
+    private final Application application;
+
+    /** Livedata number of stuecks in the database, emitted again after each write */
+    private final LiveData<Integer> stueckCount;
+
+    /** Database and Dao instances */
+    private final StueckRoomDatabase db;
     private final StueckDao stueckDao;
 
+    /** Application-scoped executor running the writes in order */
+    private final Executor writeExecutor;
+
+    /** Application-scoped reader thread running the exports in order, so that they never hold up the writes.
+     * The thread stops when idle */
+    private static final ExecutorService EXPORT_EXECUTOR = new ThreadPoolExecutor(0, 1, 30L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), r -> new Thread(r, "stueck-exporter"));
+
+    /** Application-scoped thread running the imports in order. The chunks of an import are committed by the writer
+     * thread, as separate writes. The thread stops when idle */
+    private static final ExecutorService IMPORT_EXECUTOR = new ThreadPoolExecutor(0, 1, 30L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), r -> new Thread(r, "stueck-importer"));
+
+    /** Bulk importer and exporter */
+    private final StueckImporter importer;
+    private final StueckExporter exporter;
+
+    /** Index of the ids by profile mask, updated on the writer thread once each write transaction is committed */
+    private final ProfileBuckets profileBuckets = new ProfileBuckets();
+
     // Constructor
     public StueckRepository(Application application) {
-        StueckRoomDatabase db = StueckRoomDatabase.getDatabase(application);
+        this.application = application;
+        db = StueckRoomDatabase.getDatabase(application);
         stueckDao = db.stueckDao();
-        allStuecksList = stueckDao.getAllStuecks();
+        writeExecutor = StueckWriteExecutor.getInstance();
+        importer = new StueckImporter(stueckDao, this::runWriteAndWait, profileBuckets);
+        exporter = new StueckExporter(stueckDao);
+        stueckCount = stueckDao.getStueckCount();
+        // loaded before any write, the next writes keep it up to date
+        writeExecutor.execute(() -> {
+            try (Cursor cursor = stueckDao.getIdsAndMasks()) {
+                profileBuckets.load(cursor);
+            }
+        });
+        // purge the rows left by a previous run
+        writeExecutor.execute(this::compact);
     }
 
     /**
@@ -29,19 +93,190 @@ public class StueckRepository {
      * @param stueck  The <code>Stueck</code> to insert
      */
     public void insertStueck(@NonNull Stueck stueck) {
-        ExecutorService executor = Executors.newSingleThreadExecutor();
-        executor.submit(() -> stueckDao.insertStueck(stueck));
-        executor.shutdown();
+        writeExecutor.execute(() -> {
+            long id = db.runInTransaction(() -> {
+                purgeDeletedName(stueck.getName());
+                return stueckDao.insertStueck(stueck);
+            });
+            // indexed once committed, so that a rolled back write leaves the index unchanged
+            if (id != -1) profileBuckets.put((int) id, stueck.getProfileMask());
+        });
     }
 
     /**
-     * Deletes all <code>Stueck</code> records matching the given db id
+     * Import all the <code>Stueck</code> of an asset file in the fill.txt format, see {@link StueckImporter}.
+     * The asset is read on the import thread, and its chunks are committed in between the other writes.
+     * @param assetName The name of the asset file, encoded in ISO-8859-1, plain or compressed with gzip
+     * @param mode      StueckImporter.MODE_ADD, MODE_SYNC or MODE_SYNC_DELETE
+     * @param updateDay The update day to set in the imported <code>Stueck</code>, in days since 1970-01-01
+     * @param cancelled Set to true to cancel the import
+     * @param listener  The listener receiving the progress and the final report, called on the import thread
+     */
+    public void importAsset(@NonNull String assetName, int mode, int updateDay, @NonNull AtomicBoolean cancelled,
+                            @NonNull StueckImporter.ProgressListener listener) {
+        IMPORT_EXECUTOR.execute(() -> {
+            try (InputStream source = application.getAssets().open(assetName)) {
+                ImportReport report = importer.importStream(source, ImportReport.UNKNOWN_SIZE, mode, updateDay,
+                        cancelled, listener);
+                Log.d(TAG, "Imported " + report.getInsertedCount() + " Stuecks from " + assetName);
+                listener.onProgress(report);
+            } catch (IOException | RuntimeException e) {
+                // the listener always gets a final report, so that a next import can start
+                Log.e(TAG, "Cannot import " + assetName, e);
+                listener.onProgress(ImportReport.failed(mode));
+            }
+        });
+    }
+
+    /**
+     * Import all the <code>Stueck</code> of a file in the fill.txt format, see {@link StueckImporter}.
+     * The file is streamed on the import thread, and its chunks are committed in between the other writes.
+     * @param uri       The Uri of the file, as returned by the Storage Access Framework. Encoded in ISO-8859-1,
+     *                  plain or compressed with gzip
+     * @param mode      StueckImporter.MODE_ADD, MODE_SYNC or MODE_SYNC_DELETE
+     * @param updateDay The update day to set in the imported <code>Stueck</code>, in days since 1970-01-01
+     * @param cancelled Set to true to cancel the import
+     * @param listener  The listener receiving the progress and the final report, called on the import thread
+     */
+    public void importUri(@NonNull Uri uri, int mode, int updateDay, @NonNull AtomicBoolean cancelled,
+                          @NonNull StueckImporter.ProgressListener listener) {
+        IMPORT_EXECUTOR.execute(() -> {
+            try (AssetFileDescriptor file = application.getContentResolver().openAssetFileDescriptor(uri, "r")) {
+                if (file == null) throw new FileNotFoundException(uri.toString());
+                try (InputStream source = file.createInputStream()) {
+                    // the length is UNKNOWN_LENGTH, i.e. ImportReport.UNKNOWN_SIZE, if the provider does not know it
+                    ImportReport report = importer.importStream(source, file.getLength(), mode, updateDay,
+                            cancelled, listener);
+                    Log.d(TAG, "Imported " + report.getInsertedCount() + " Stuecks from " + uri);
+                    listener.onProgress(report);
+                }
+            } catch (IOException | RuntimeException e) {
+                // the listener always gets a final report, so that a next import can start
+                Log.e(TAG, "Cannot import " + uri, e);
+                listener.onProgress(ImportReport.failed(mode));
+            }
+        });
+    }
+
+    /**
+     * Export all the <code>Stueck</code> records to a file, see {@link StueckExporter}.
+     * The export runs on its own reader thread while the writes go on : the records written during the export
+     * may or may not be exported.
+     * @param uri       The Uri of the file, as returned by the Storage Access Framework. Its content is replaced
+     * @param format    StueckExporter.FORMAT_TEXT or StueckExporter.FORMAT_BINARY
+     * @param listener  The listener receiving the result, called on the export thread
+     */
+    public void exportUri(@NonNull Uri uri, int format, @NonNull StueckExporter.ExportListener listener) {
+        EXPORT_EXECUTOR.execute(() -> {
+            try (ParcelFileDescriptor file = application.getContentResolver().openFileDescriptor(uri, "wt")) {
+                if (file == null) throw new FileNotFoundException(uri.toString());
+                try (FileChannel channel = new FileOutputStream(file.getFileDescriptor()).getChannel()) {
+                    int count = exporter.export(channel, format);
+                    Log.d(TAG, "Exported " + count + " Stuecks to " + uri);
+                    listener.onExportDone(count);
+                }
+            } catch (IOException | RuntimeException e) {
+                // the listener always gets a result, so that a next export can start
+                Log.e(TAG, "Cannot export to " + uri, e);
+                listener.onExportDone(StueckExporter.EXPORT_FAILED);
+            }
+        });
+    }
+
+    /**
+     * Soft-delete a <code>Stueck</code> : the row is flagged and journaled, so that the deletion can be undone
+     * with undoLastDelete. Beyond MAX_UNDO_ENTRIES deletions, the oldest deleted rows are purged in the background
      * @param stueckId  database Id of the Stueck to delete
      */
     public void deleteStueck(int stueckId) {
-        ExecutorService executor = Executors.newSingleThreadExecutor();
-        executor.submit(() -> stueckDao.deleteStueck(stueckId));
-        executor.shutdown();
+        writeExecutor.execute(() -> {
+            // the number of trimmed journal entries, or -1 if there is no row to delete
+            int trimmed = db.runInTransaction(() -> {
+                if (stueckDao.setDeleted(stueckId, true) == 0) return -1;
+                stueckDao.insertUndoEntry(new UndoEntry(stueckId));
+                return stueckDao.trimUndoJournal(MAX_UNDO_ENTRIES);
+            });
+            if (trimmed < 0) return;
+            profileBuckets.remove(stueckId);
+            if (trimmed > 0) compact();
+        });
+    }
+
+    /**
+     * Undo the last deletion which is not undone yet, restoring the deleted <code>Stueck</code> with its id.
+     * Nothing is done if there is no deletion to undo
+     */
+    public void undoLastDelete() {
+        writeExecutor.execute(() -> indexRestored(db.runInTransaction(() -> {
+            UndoEntry entry = stueckDao.getLastUndoEntry();
+            if (entry == null) return null;
+            stueckDao.deleteUndoEntry(entry.getId());
+            return restoreDeleted(entry.getStueckId());
+        })));
+    }
+
+    /**
+     * Undo the deletion of a given <code>Stueck</code>, whatever the deletions made after it, restoring it
+     * with its id. Nothing is done if its deletion is already undone or can no longer be undone
+     * @param stueckId  database Id of the deleted Stueck
+     */
+    public void undoDelete(int stueckId) {
+        writeExecutor.execute(() -> indexRestored(db.runInTransaction(
+                () -> (stueckDao.deleteUndoEntriesOf(stueckId) > 0) ? restoreDeleted(stueckId) : null)));
+    }
+
+    /* Clear the deleted flag of a journaled row. Runs in a write transaction.
+    Returns the id and the profile mask of the restored row, or null if there is no row to restore */
+    private int[] restoreDeleted(int stueckId) {
+        if (stueckDao.setDeleted(stueckId, false) == 0) return null;
+        return new int[]{stueckId, stueckDao.getProfileMask(stueckId)};
+    }
+
+    /* Index a restored row, once its transaction is committed */
+    private void indexRestored(int[] restored) {
+        if (restored != null) profileBuckets.put(restored[0], restored[1]);
+    }
+
+    /**
+     * Get the number of deletions which can be undone
+     * @return A {@code LiveData<Integer>} number of deletions
+     */
+    public LiveData<Integer> getUndoCount() {
+        return stueckDao.getUndoCount();
+    }
+
+    /* Purge the soft-deleted rows out of the undo journal, one batch per transaction so that readers are not
+    held up by a long transaction. Runs on the writer thread, the batches being purged within the running task
+    instead of being queued behind the other writes */
+    private void compact() {
+        int purged;
+        do {
+            purged = db.runInTransaction(() -> stueckDao.purgeDeleted(COMPACTION_BATCH_SIZE));
+        } while (purged == COMPACTION_BATCH_SIZE);
+    }
+
+    /* Run a write transaction on the writer thread, between the other writes, and wait until it is committed.
+    Used by the importer, one transaction per chunk. Rethrows the failure of the transaction, rolled back */
+    private void runWriteAndWait(Runnable write) {
+        FutureTask<Void> task = new FutureTask<>(() -> db.runInTransaction(write), null);
+        writeExecutor.execute(task);
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a write", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /* A soft-deleted row keeps its name in the unique name index : purge it before the name is used again */
+    private void purgeDeletedName(String name) {
+        stueckDao.deleteUndoEntriesByName(name);
+        stueckDao.purgeDeletedByName(name);
     }
 
     /**
@@ -49,16 +284,214 @@ public class StueckRepository {
      * @param stueck : the Stueck to update.
      */
     public void updateStueck(@NonNull Stueck stueck) {
-        ExecutorService executor = Executors.newSingleThreadExecutor();
-        executor.submit(() -> stueckDao.updateStueck(stueck));
-        executor.shutdown();
+        writeExecutor.execute(() -> {
+            int updated = db.runInTransaction(() -> {
+                purgeDeletedName(stueck.getName());
+                return stueckDao.updateStueck(stueck);
+            });
+            if (updated > 0) profileBuckets.put(stueck.getId(), stueck.getProfileMask());
+        });
     }
 
     /**
-     * Get a Livedata List of all items in database
-     * @return A {@code Livedata<List<Stueck>>} object of all items in database
+     * Get the number of items in database, emitted again after each write to the table, so that it can be observed
+     * to follow the changes of the table without loading its items
+     * @return A {@code LiveData<Integer>} number of items
      */
-    public LiveData<List<Stueck>> getAllStuecksList() {
-        return allStuecksList;
+    public LiveData<Integer> getStueckCount() {
+        return stueckCount;
+    }
+
+    /**
+     * Get the ids of the items matching a Profile, from the in-memory index of the ids by profile mask.
+     * The index is updated after each committed write, and may be ahead of the last emitted count.
+     * Until the index is loaded, the ids and masks are read from the table. Must not be called on the main thread
+     * @param matcher The compiled Profile to match
+     * @return The matching ids in ascending order
+     */
+    @WorkerThread
+    public int[] getIdsMatching(@NonNull Profile.Matcher matcher) {
+        int[] ids = profileBuckets.idsMatching(matcher);
+        if (ids != null) return ids;
+        int count = 0;
+        try (Cursor cursor = stueckDao.getIdsAndMasks()) {
+            ids = new int[cursor.getCount()];
+            while (cursor.moveToNext()) {
+                if (matcher.matches(cursor.getInt(1))) ids[count++] = cursor.getInt(0);
+            }
+        }
+        ids = Arrays.copyOf(ids, count);
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Get the weights of items in weighted draws. Only the weights other than Stueck.DEFAULT_WEIGHT are read from
+     * the table. Must not be called on the main thread
+     * @param ids   The ids of the items, in ascending order
+     * @return The weights of the items, in the order of the ids
+     */
+    @WorkerThread
+    public int[] getWeights(@NonNull int[] ids) {
+        int[] weights = new int[ids.length];
+        Arrays.fill(weights, Stueck.DEFAULT_WEIGHT);
+        try (Cursor cursor = stueckDao.getIdsAndWeightsOtherThan(Stueck.DEFAULT_WEIGHT)) {
+            // both are ordered by id, each id is searched from the position of the previous one
+            int from = 0;
+            while (cursor.moveToNext() && (from < ids.length)) {
+                int pos = Arrays.binarySearch(ids, from, ids.length, cursor.getInt(0));
+                if (pos >= 0) {
+                    weights[pos] = cursor.getInt(1);
+                    from = pos + 1;
+                } else {
+                    from = -pos - 1;
+                }
+            }
+        }
+        return weights;
+    }
+
+    /**
+     * Get the name of an item. Must not be called on the main thread
+     * @param id    The database id of the item
+     * @return The name, or null if the item does not exist or is deleted
+     */
+    @WorkerThread
+    public String getName(int id) {
+        return stueckDao.getName(id);
+    }
+
+    /**
+     * Check whether a name is used by an item. The check runs on the writer thread, so that it sees the result
+     * of all the writes requested before it
+     * @param name      The name
+     * @param listener  The listener receiving true if an item has this name, called on the writer thread
+     */
+    public void checkNameUsed(@NonNull String name, @NonNull Consumer<Boolean> listener) {
+        writeExecutor.execute(() -> listener.accept(!stueckDao.findStueck(name).isEmpty()));
+    }
+
+    /**
+     * Write a snapshot of the table to a file, see {@link CatalogueSnapshot}. The table is walked by cursors,
+     * its items are not loaded at once. Must not be called on the main thread, nor on the writer thread
+     * @param file  The snapshot file
+     */
+    @WorkerThread
+    public void writeSnapshot(@NonNull File file) {
+        CatalogueSnapshot.write(file, stueckDao);
+    }
+
+    /**
+     * Get a PagingSource of the items in database matching a Profile, ordered by id
+     * @param profile The Profile to match
+     * @return A {@code PagingSource} of the matching items, to be used by a Pager
+     */
+    public PagingSource<Integer, Stueck> pageStuecksMatching(@NonNull Profile profile) {
+        int mask = profile.getMask();
+        return stueckDao.pageStuecksMatching(mask & Profile.NATURE_MASK,
+                mask & Profile.STYLE_MASK,
+                mask & Profile.CRITERIA_MASK);
+    }
+
+    /**
+     * Get a PagingSource of the items in database matching a Profile, ordered by name ignoring case
+     * @param profile The Profile to match
+     * @return A {@code PagingSource} of the matching items, to be used by a Pager
+     */
+    public PagingSource<Integer, Stueck> pageStuecksByName(@NonNull Profile profile) {
+        int mask = profile.getMask();
+        return stueckDao.pageStuecksByName(mask & Profile.NATURE_MASK,
+                mask & Profile.STYLE_MASK,
+                mask & Profile.CRITERIA_MASK);
+    }
+
+    /**
+     * Get a PagingSource of the items in database matching a Profile, the most recently updated first
+     * @param profile The Profile to match
+     * @return A {@code PagingSource} of the matching items, to be used by a Pager
+     */
+    public PagingSource<Integer, Stueck> pageStuecksByRecency(@NonNull Profile profile) {
+        int mask = profile.getMask();
+        return stueckDao.pageStuecksByRecency(mask & Profile.NATURE_MASK,
+                mask & Profile.STYLE_MASK,
+                mask & Profile.CRITERIA_MASK);
+    }
+
+    /**
+     * Get a PagingSource of the items in database matching a Profile updated since a day, the most recently updated first
+     * @param profile The Profile to match
+     * @param day     The first day, in days since 1970-01-01
+     * @return A {@code PagingSource} of the matching items, to be used by a Pager
+     */
+    public PagingSource<Integer, Stueck> pageStuecksUpdatedSince(@NonNull Profile profile, int day) {
+        int mask = profile.getMask();
+        return stueckDao.pageStuecksUpdatedSince(day,
+                mask & Profile.NATURE_MASK,
+                mask & Profile.STYLE_MASK,
+                mask & Profile.CRITERIA_MASK);
+    }
+
+    /**
+     * Get a PagingSource of the items in database matching a Profile whose name starts with a prefix,
+     * ignoring case, ordered by name
+     * @param profile The Profile to match
+     * @param prefix  The start of the names
+     * @return A {@code PagingSource} of the matching items, to be used by a Pager
+     */
+    public PagingSource<Integer, Stueck> pageStuecksByPrefix(@NonNull Profile profile, @NonNull String prefix) {
+        int mask = profile.getMask();
+        return stueckDao.pageStuecksByPrefix(prefixPattern(prefix),
+                mask & Profile.NATURE_MASK,
+                mask & Profile.STYLE_MASK,
+                mask & Profile.CRITERIA_MASK);
+    }
+
+    /**
+     * Get a PagingSource of the items in database matching a Profile whose name contains words starting with
+     * the words of a search text, ranked by relevance. See {@link StueckDao#pageStuecksByFullText}.
+     * If the text contains no word, the items whose name starts with the text are returned.
+     * @param profile The Profile to match
+     * @param text    The searched text
+     * @return A {@code PagingSource} of the matching items, to be used by a Pager
+     */
+    public PagingSource<Integer, Stueck> pageStuecksByFullText(@NonNull Profile profile, @NonNull String text) {
+        String match = fullTextQuery(text);
+        if (match.isEmpty()) return pageStuecksByPrefix(profile, text);
+        int mask = profile.getMask();
+        return stueckDao.pageStuecksByFullText(match, prefixPattern(text.trim()),
+                mask & Profile.NATURE_MASK,
+                mask & Profile.STYLE_MASK,
+                mask & Profile.CRITERIA_MASK);
+    }
+
+    /* Build a FTS4 query matching the names containing, for each word of the text, a word starting with it.
+    Characters other than letters and digits separate the words, so that no FTS operator is passed through */
+    private static String fullTextQuery(String text) {
+        StringBuilder sb = new StringBuilder(text.length() + 8);
+        boolean inWord = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (!inWord && (sb.length() > 0)) sb.append(' ');
+                sb.append(c);
+                inWord = true;
+            } else {
+                if (inWord) sb.append('*');
+                inWord = false;
+            }
+        }
+        if (inWord) sb.append('*');
+        return sb.toString();
+    }
+
+    /* Build a LIKE pattern matching the names starting with the given prefix, wildcards in the prefix being escaped */
+    private static String prefixPattern(String prefix) {
+        StringBuilder sb = new StringBuilder(prefix.length() + 2);
+        for (int i = 0; i < prefix.length(); i++) {
+            char c = prefix.charAt(i);
+            if ((c == '%') || (c == '_') || (c == '\\')) sb.append('\\');
+            sb.append(c);
+        }
+        return sb.append('%').toString();
     }
 }
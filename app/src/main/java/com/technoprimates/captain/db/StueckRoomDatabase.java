@@ -2,21 +2,175 @@ package com.technoprimates.captain.db;
 
 import android.content.Context;
 
+import androidx.annotation.NonNull;
 import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
+import androidx.room.TypeConverters;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
 
-@Database(entities = {Stueck.class}, version = 1)
+@Database(entities = {Stueck.class, StueckFts.class, UndoEntry.class}, version = 9)
+@TypeConverters(ProfileConverters.class)
 public abstract class StueckRoomDatabase extends RoomDatabase {
     public abstract StueckDao stueckDao();
     private static volatile StueckRoomDatabase INSTANCE;
 
+    /**
+     * Version 2 adds the sProfileMask integer column, backfilled from sBoolFields, and its index.
+     * The masks are computed in SQL in a single pass over the table, as Profile.of(String) does :
+     * strings which do not define a valid Profile get the mask with all usages allowed
+     */
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `stuecks` ADD COLUMN `sProfileMask` INTEGER NOT NULL DEFAULT 0");
+
+            // bit i is set if char i is 'X', a comparison being 1 when true
+            StringBuilder mask = new StringBuilder();
+            for (int i = 0; i < Profile.NB_CHECKBOX; i++) {
+                if (i > 0) mask.append(" + ");
+                mask.append("(substr(`sBoolFields`, ").append(i + 1).append(", 1) = 'X') * ").append(1 << i);
+            }
+            database.execSQL("UPDATE `stuecks` SET `sProfileMask` = CASE WHEN length(`sBoolFields`) = "
+                    + Profile.NB_CHECKBOX + " THEN " + mask + " ELSE " + Profile.ALL_MASK + " END");
+            database.execSQL("UPDATE `stuecks` SET `sProfileMask` = " + Profile.ALL_MASK
+                    + " WHERE (`sProfileMask` & " + Profile.NATURE_MASK + ") = 0"
+                    + " OR (`sProfileMask` & " + Profile.STYLE_MASK + ") = 0"
+                    + " OR (`sProfileMask` & " + Profile.CRITERIA_MASK + ") = 0");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_stuecks_sProfileMask` ON `stuecks` (`sProfileMask`)");
+        }
+    };
+
+    /**
+     * Version 3 makes names unique : duplicate names are removed, keeping the oldest row, and a unique index is created
+     */
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("DELETE FROM `stuecks` WHERE `sId` NOT IN (SELECT MIN(`sId`) FROM `stuecks` GROUP BY `sName`)");
+            database.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_stuecks_sName` ON `stuecks` (`sName`)");
+        }
+    };
+
+    /**
+     * Version 4 adds the sSearchName column, a copy of sName with the NOCASE collation, and its index
+     */
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `stuecks` ADD COLUMN `sSearchName` TEXT COLLATE NOCASE");
+            database.execSQL("UPDATE `stuecks` SET `sSearchName` = `sName`");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_stuecks_sSearchName` ON `stuecks` (`sSearchName`)");
+        }
+    };
+
+    /**
+     * Version 5 adds the stuecks_fts full-text table over the names, its sync triggers, and indexes the existing names
+     */
+    static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `stuecks_fts` USING FTS4(`sName` TEXT, tokenize=unicode61, content=`stuecks`)");
+            createFtsTriggers(database);
+            database.execSQL("INSERT INTO `stuecks_fts`(`stuecks_fts`) VALUES ('rebuild')");
+        }
+    };
+
+    /**
+     * Version 6 adds the sWeight column, used by weighted draws
+     */
+    static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `stuecks` ADD COLUMN `sWeight` INTEGER NOT NULL DEFAULT 1");
+        }
+    };
+
+    /**
+     * Version 7 drops the sBoolFields column, the profile being stored in sProfileMask only.
+     * SQLite cannot drop a column before 3.35, so the table is rebuilt with the same ids, then its indices
+     * and full-text triggers are created again. The full-text table does not change, as the rowids are kept.
+     */
+    static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `stuecks_new` (`sId` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`sName` TEXT, `sSearchName` TEXT COLLATE NOCASE, `sUpdateDay` TEXT, "
+                    + "`sProfileMask` INTEGER NOT NULL DEFAULT 0, `sWeight` INTEGER NOT NULL DEFAULT 1)");
+            database.execSQL("INSERT INTO `stuecks_new` (`sId`, `sName`, `sSearchName`, `sUpdateDay`, `sProfileMask`, `sWeight`) "
+                    + "SELECT `sId`, `sName`, `sSearchName`, `sUpdateDay`, `sProfileMask`, `sWeight` FROM `stuecks`");
+            replaceStuecksTable(database);
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_stuecks_sProfileMask` ON `stuecks` (`sProfileMask`)");
+            database.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_stuecks_sName` ON `stuecks` (`sName`)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_stuecks_sSearchName` ON `stuecks` (`sSearchName`)");
+            createFtsTriggers(database);
+        }
+    };
+
+    /**
+     * Version 8 stores sUpdateDay as an INTEGER number of days since 1970-01-01 instead of a dd-MM-yyyy string,
+     * and indexes it. The table is rebuilt as for version 7, the days being converted in SQL.
+     * Days which cannot be parsed are set to 0, the unknown day.
+     */
+    static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `stuecks_new` (`sId` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`sName` TEXT, `sSearchName` TEXT COLLATE NOCASE, `sUpdateDay` INTEGER NOT NULL DEFAULT 0, "
+                    + "`sProfileMask` INTEGER NOT NULL DEFAULT 0, `sWeight` INTEGER NOT NULL DEFAULT 1)");
+            // dd-MM-yyyy is reordered as yyyy-MM-dd for julianday, which returns NULL for an invalid date
+            database.execSQL("INSERT INTO `stuecks_new` (`sId`, `sName`, `sSearchName`, `sUpdateDay`, `sProfileMask`, `sWeight`) "
+                    + "SELECT `sId`, `sName`, `sSearchName`, "
+                    + "COALESCE(CAST(julianday(substr(`sUpdateDay`, 7, 4) || '-' || substr(`sUpdateDay`, 4, 2) || '-' || substr(`sUpdateDay`, 1, 2)) - 2440587.5 AS INTEGER), 0), "
+                    + "`sProfileMask`, `sWeight` FROM `stuecks`");
+            replaceStuecksTable(database);
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_stuecks_sProfileMask` ON `stuecks` (`sProfileMask`)");
+            database.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_stuecks_sName` ON `stuecks` (`sName`)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_stuecks_sSearchName` ON `stuecks` (`sSearchName`)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_stuecks_sUpdateDay` ON `stuecks` (`sUpdateDay`)");
+            createFtsTriggers(database);
+        }
+    };
+
+    /**
+     * Version 9 adds the sDeleted soft-delete flag and its index, and the undo_journal table of the deletions to undo
+     */
+    static final Migration MIGRATION_8_9 = new Migration(8, 9) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `stuecks` ADD COLUMN `sDeleted` INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_stuecks_sDeleted` ON `stuecks` (`sDeleted`)");
+            database.execSQL("CREATE TABLE IF NOT EXISTS `undo_journal` (`uId` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`uStueckId` INTEGER NOT NULL)");
+        }
+    };
+
+    /* Replace the stuecks table by the filled stuecks_new table. The indices and the triggers are to be created again */
+    private static void replaceStuecksTable(@NonNull SupportSQLiteDatabase database) {
+        // keep the autoincrement sequence, so that the ids of deleted rows are never given again
+        database.execSQL("UPDATE `sqlite_sequence` SET `seq` = (SELECT `seq` FROM `sqlite_sequence` WHERE `name` = 'stuecks') "
+                + "WHERE `name` = 'stuecks_new' AND EXISTS (SELECT 1 FROM `sqlite_sequence` WHERE `name` = 'stuecks')");
+        database.execSQL("DROP TABLE `stuecks`");
+        database.execSQL("ALTER TABLE `stuecks_new` RENAME TO `stuecks`");
+    }
+
+    /* Create the triggers keeping stuecks_fts in sync with stuecks, the same as the ones created by room for a new database */
+    private static void createFtsTriggers(@NonNull SupportSQLiteDatabase database) {
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_stuecks_fts_BEFORE_UPDATE BEFORE UPDATE ON `stuecks` BEGIN DELETE FROM `stuecks_fts` WHERE `docid`=OLD.`rowid`; END");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_stuecks_fts_BEFORE_DELETE BEFORE DELETE ON `stuecks` BEGIN DELETE FROM `stuecks_fts` WHERE `docid`=OLD.`rowid`; END");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_stuecks_fts_AFTER_UPDATE AFTER UPDATE ON `stuecks` BEGIN INSERT INTO `stuecks_fts`(`docid`, `sName`) VALUES (NEW.`rowid`, NEW.`sName`); END");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_stuecks_fts_AFTER_INSERT AFTER INSERT ON `stuecks` BEGIN INSERT INTO `stuecks_fts`(`docid`, `sName`) VALUES (NEW.`rowid`, NEW.`sName`); END");
+    }
+
     static StueckRoomDatabase getDatabase(final Context context) {
         if (INSTANCE == null) {
             synchronized (StueckRoomDatabase.class) {
                 if (INSTANCE == null) {
                     INSTANCE = Room.databaseBuilder(context.getApplicationContext(),
                                     StueckRoomDatabase.class, "stueck-database")
+                            .addMigrations(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6, MIGRATION_6_7, MIGRATION_7_8,
+                                    MIGRATION_8_9)
                             .build();
                 }
             }
@@ -0,0 +1,179 @@
+package com.technoprimates.captain.db;
+
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The application-scoped executor running all database writes.
+ *
+ * A single thread runs the writes, which matches SQLite's single writer: writes never compete for
+ * the database lock, and writes submitted from a same thread are run in submission order.
+ * Writes submitted from background threads are bounded : when QUEUE_CAPACITY of them are pending, the submitting
+ * thread waits for a slot, which slows down bulk producers instead of piling up tasks in memory.
+ * The main thread and the writer thread itself never wait : a blocked main thread would freeze the UI behind
+ * a long import, and a blocked writer thread would wait for its own queue forever.
+ *
+ * The executor also counts queue depth and per-operation latency, logged every STATS_PERIOD operations.
+ */
+public class StueckWriteExecutor implements Executor {
+
+    public static final String TAG = "STUECK WRITE EXECUTOR";
+
+    /* Maximum number of pending writes submitted from background threads before these threads are blocked */
+    private static final int QUEUE_CAPACITY = 256;
+
+    /* Number of operations between two stats logs */
+    private static final int STATS_PERIOD = 1000;
+
+    private static volatile StueckWriteExecutor INSTANCE;
+
+    private final ThreadPoolExecutor mExecutor;
+    private volatile Thread mWriterThread;
+
+    /* The free slots for writes submitted from background threads, fair so that blocked submitters get their
+    slot in arrival order. A slot is taken when the write is queued, and given back when it starts */
+    private final Semaphore mBackgroundSlots;
+
+    // metrics
+    private final AtomicLong mOpCount = new AtomicLong();
+    private final AtomicLong mTotalWaitNanos = new AtomicLong();
+    private final AtomicLong mTotalRunNanos = new AtomicLong();
+    private final AtomicLong mMaxRunNanos = new AtomicLong();
+    private final AtomicInteger mMaxQueueDepth = new AtomicInteger();
+
+    /**
+     * Get the application-scoped instance
+     * @return The executor to use for all database writes
+     */
+    public static StueckWriteExecutor getInstance() {
+        if (INSTANCE == null) {
+            synchronized (StueckWriteExecutor.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new StueckWriteExecutor(QUEUE_CAPACITY);
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    private StueckWriteExecutor(int capacity) {
+        mBackgroundSlots = new Semaphore(capacity, true);
+        mExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                r -> mWriterThread = new Thread(r, "stueck-db-writer"));
+    }
+
+    /**
+     * Queue a database write. When called from a background thread other than the writer thread,
+     * blocks while QUEUE_CAPACITY writes from background threads are pending.
+     * @param command The write to run on the writer thread
+     */
+    @Override
+    public void execute(@NonNull Runnable command) {
+        final long queuedAt = System.nanoTime();
+        // back-pressure : wait for a free slot instead of rejecting the write
+        final boolean bounded = (Looper.myLooper() != Looper.getMainLooper())
+                && (Thread.currentThread() != mWriterThread);
+        if (bounded) {
+            try {
+                mBackgroundSlots.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while waiting for a write slot", e);
+            }
+        }
+        try {
+            mExecutor.execute(() -> {
+                if (bounded) mBackgroundSlots.release();
+                runWrite(command, queuedAt);
+            });
+        } catch (RejectedExecutionException e) {
+            if (bounded) mBackgroundSlots.release();
+            throw e;
+        }
+        updateMaxQueueDepth(mExecutor.getQueue().size());
+    }
+
+    /* Run a write on the writer thread, recording its metrics */
+    private void runWrite(Runnable command, long queuedAt) {
+        long startedAt = System.nanoTime();
+        try {
+            command.run();
+        } catch (RuntimeException e) {
+            // keep the writer thread alive, a failed write must not cancel the next ones
+            Log.e(TAG, "Write failed", e);
+        } finally {
+            recordOperation(startedAt - queuedAt, System.nanoTime() - startedAt);
+        }
+    }
+
+    /**
+     * @return The number of writes waiting in the queue
+     */
+    public int getQueueDepth() {return mExecutor.getQueue().size();}
+
+    /**
+     * @return The highest number of writes observed waiting in the queue
+     */
+    public int getMaxQueueDepth() {return mMaxQueueDepth.get();}
+
+    /**
+     * @return The number of writes completed
+     */
+    public long getOperationCount() {return mOpCount.get();}
+
+    /**
+     * @return The mean time spent by a write in the queue, in nanoseconds
+     */
+    public long getMeanWaitNanos() {
+        long count = mOpCount.get();
+        return count == 0 ? 0 : mTotalWaitNanos.get() / count;
+    }
+
+    /**
+     * @return The mean time spent running a write, in nanoseconds
+     */
+    public long getMeanRunNanos() {
+        long count = mOpCount.get();
+        return count == 0 ? 0 : mTotalRunNanos.get() / count;
+    }
+
+    /**
+     * @return The longest time spent running a write, in nanoseconds
+     */
+    public long getMaxRunNanos() {return mMaxRunNanos.get();}
+
+    private void updateMaxQueueDepth(int depth) {
+        int max;
+        while (depth > (max = mMaxQueueDepth.get())) {
+            if (mMaxQueueDepth.compareAndSet(max, depth)) return;
+        }
+    }
+
+    private void recordOperation(long waitNanos, long runNanos) {
+        mTotalWaitNanos.addAndGet(waitNanos);
+        mTotalRunNanos.addAndGet(runNanos);
+        long max;
+        while (runNanos > (max = mMaxRunNanos.get())) {
+            if (mMaxRunNanos.compareAndSet(max, runNanos)) break;
+        }
+        if (mOpCount.incrementAndGet() % STATS_PERIOD == 0) {
+            Log.d(TAG, "ops : " + mOpCount.get()
+                    + ", queue depth : " + getQueueDepth() + " (max " + getMaxQueueDepth() + ")"
+                    + ", mean wait : " + getMeanWaitNanos() / 1000 + "us"
+                    + ", mean run : " + getMeanRunNanos() / 1000 + "us"
+                    + ", max run : " + getMaxRunNanos() / 1000 + "us");
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.technoprimates.captain.db;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * An entry of the undo journal : a soft-deleted <code>Stueck</code> whose deletion can be undone.
+ * The entries are undone in the reverse order of their ids, the last deletion first.
+ */
+@Entity(tableName = "undo_journal")
+public class UndoEntry {
+
+    /* The id of the entry, increasing with each deletion */
+    @PrimaryKey(autoGenerate = true)
+    @ColumnInfo(name="uId")
+    private int id;
+
+    /* The id of the soft-deleted Stueck */
+    @ColumnInfo(name="uStueckId")
+    private int stueckId;
+
+    /**
+     * Constructor of an entry for a deleted <code>Stueck</code>
+     * @param stueckId  The database id of the <code>Stueck</code>
+     */
+    public UndoEntry(int stueckId) {
+        this.id = 0;
+        this.stueckId = stueckId;
+    }
+
+    /**
+     * @return  The id of the entry
+     */
+    public int getId() {return this.id;}
+
+    /**
+     * Sets the id of the entry. This method is meant to be called only by room Dao implementations
+     * @param id   The id, or zero for auto incrementation
+     */
+    public void setId(int id) {this.id = id;}
+
+    /**
+     * @return  The database id of the deleted <code>Stueck</code>
+     */
+    public int getStueckId() {return this.stueckId;}
+}
@@ -0,0 +1,180 @@
+package com.technoprimates.captain.draw;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * A pool of <code>Stueck</code> ids to be drawn at random, each id being excluded from the draws
+ * once drawn.
+ *
+ * The ids are stored in an int array split in two parts : the drawable ids, followed by the drawn ids.
+ * Drawing swaps a random id of the first part with the last id of this part, and shrinks the first part by one,
+ * so that a draw takes constant time and allocates nothing. Rewinding the pool just makes all ids drawable again.
+ *
+ * Without a window, drawn ids stay excluded until the pool is rewound. With a window of K, only the last K
+ * drawn ids are excluded : the oldest one is made drawable again at each draw, so that there is no repeat
+ * within K draws and no rebuild is ever needed.
+ */
+public class DrawPool implements DrawStrategy {
+
+    /**
+     * Window value for a pool whose drawn ids stay excluded until rewound
+     */
+    public static final int NO_WINDOW = 0;
+
+    /* The ids, drawable ones in [0, mRemaining), drawn ones in [mRemaining, mSize) */
+    private int[] mIds = new int[16];
+    private int mSize;
+    private int mRemaining;
+    private final IdSlots mSlots = new IdSlots();
+
+    /* With a window, ring buffer of the excluded ids in draw order */
+    private final int[] mRecent;
+    private int mRecentStart;
+    private int mRecentCount;
+
+    private final SplittableRandom mRandom;
+
+    /**
+     * Builds an empty pool without window, with a random seed
+     */
+    public DrawPool() {
+        this(NO_WINDOW, new SplittableRandom());
+    }
+
+    /**
+     * Builds an empty pool with a random seed
+     * @param window    The number of last drawn ids excluded from the draws, or NO_WINDOW
+     */
+    public DrawPool(int window) {
+        this(window, new SplittableRandom());
+    }
+
+    /**
+     * Builds an empty pool with a given seed, drawing the same sequence for the same contents
+     * @param window    The number of last drawn ids excluded from the draws, or NO_WINDOW
+     * @param seed      The seed of the random generator
+     */
+    public DrawPool(int window, long seed) {
+        this(window, new SplittableRandom(seed));
+    }
+
+    private DrawPool(int window, SplittableRandom random) {
+        mRecent = new int[Math.max(window, 0)];
+        mRandom = random;
+    }
+
+    @Override
+    public void add(int id, int weight) {
+        if (mSlots.get(id) != IdSlots.NO_SLOT) return;
+        if (mSize == mIds.length) mIds = Arrays.copyOf(mIds, mSize * 2);
+        // the new id goes to the end of the drawable part, the first drawn id moves to the end
+        mSize++;
+        move(mRemaining, mSize - 1);
+        set(mRemaining, id);
+        mRemaining++;
+    }
+
+    @Override
+    public void remove(int id) {
+        int slot = mSlots.get(id);
+        if (slot == IdSlots.NO_SLOT) return;
+        if (slot < mRemaining) {
+            // fill the hole with the last drawable id, and the last drawable slot with the last drawn id
+            mRemaining--;
+            move(mRemaining, slot);
+            move(mSize - 1, mRemaining);
+        } else {
+            move(mSize - 1, slot);
+            forgetRecent(id);
+        }
+        mSize--;
+        mSlots.remove(id);
+    }
+
+    @Override
+    public int draw() {
+        if ((mRemaining == 0) && (mRecentCount > 0)) releaseOldest(); // the window is larger than the pool
+        if (mRemaining == 0) return NO_ID;
+        int i = mRandom.nextInt(mRemaining);
+        int id = mIds[i];
+        excludeSlot(i);
+        return id;
+    }
+
+    @Override
+    public boolean exclude(int id) {
+        int slot = mSlots.get(id);
+        if (slot == IdSlots.NO_SLOT) return false;
+        if (slot < mRemaining) excludeSlot(slot);
+        return true;
+    }
+
+    @Override
+    public void rewind() {
+        mRemaining = mSize;
+        mRecentStart = 0;
+        mRecentCount = 0;
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < mSize; i++) mSlots.remove(mIds[i]);
+        mSize = 0;
+        rewind();
+    }
+
+    @Override
+    public int remaining() {return mRemaining;}
+
+    @Override
+    public int size() {return mSize;}
+
+    /* Move a drawable slot to the drawn part, and remember it in the window */
+    private void excludeSlot(int slot) {
+        int id = mIds[slot];
+        mRemaining--;
+        swap(slot, mRemaining);
+        if (mRecent.length > 0) {
+            if (mRecentCount == mRecent.length) releaseOldest();
+            mRecent[(mRecentStart + mRecentCount) % mRecent.length] = id;
+            mRecentCount++;
+        }
+    }
+
+    /* Make the oldest excluded id drawable again */
+    private void releaseOldest() {
+        int id = mRecent[mRecentStart];
+        mRecentStart = (mRecentStart + 1) % mRecent.length;
+        mRecentCount--;
+        swap(mSlots.get(id), mRemaining);
+        mRemaining++;
+    }
+
+    /* Remove a removed id from the ring of excluded ids, keeping the draw order */
+    private void forgetRecent(int id) {
+        for (int k = 0; k < mRecentCount; k++) {
+            if (mRecent[(mRecentStart + k) % mRecent.length] != id) continue;
+            for (int m = k; m < mRecentCount - 1; m++)
+                mRecent[(mRecentStart + m) % mRecent.length] = mRecent[(mRecentStart + m + 1) % mRecent.length];
+            mRecentCount--;
+            return;
+        }
+    }
+
+    private void set(int slot, int id) {
+        mIds[slot] = id;
+        mSlots.put(id, slot);
+    }
+
+    private void move(int from, int to) {
+        if (from != to) set(to, mIds[from]);
+    }
+
+    private void swap(int i, int j) {
+        if (i == j) return;
+        int id = mIds[i];
+        set(i, mIds[j]);
+        set(j, id);
+    }
+}
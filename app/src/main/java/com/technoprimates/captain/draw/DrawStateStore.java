@@ -0,0 +1,167 @@
+package com.technoprimates.captain.draw;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Persists which <code>Stueck</code> ids were drawn, so that a draw pool survives the death of the process.
+ *
+ * The state is a bitset indexed by id, stored in a small file after a 4-byte header. Marking an id only
+ * rewrites the byte holding its bit, on a background thread, so that it is cheap enough to be done on each draw.
+ * The bitset is read once on startup : no <code>Stueck</code> needs to be read to restore the drawn ids.
+ */
+public class DrawStateStore {
+
+    public static final String TAG = "DRAW STATE STORE";
+
+    /* "DRW1", identifies the file format */
+    private static final int MAGIC = 0x44525731;
+    private static final int HEADER_SIZE = 4;
+
+    private final File mFile;
+
+    /* The drawn ids. A complete bitset is published once by load, on a background thread : the owner's thread
+    only uses the store once it is loaded, and is then the only one to read and change the bitset */
+    private volatile BitSet mDrawn = new BitSet();
+
+    /* Set by clear, so that a load ending after it does not publish the forgotten draws. Guarded by this */
+    private boolean mCleared;
+
+    /* Writes are done in order on this thread */
+    private final ExecutorService mWriter = Executors.newSingleThreadExecutor();
+    private RandomAccessFile mOutput;
+
+    public DrawStateStore(@NonNull File file) {
+        mFile = file;
+    }
+
+    /**
+     * Read the stored state. An unreadable or invalid file is treated as an empty state.
+     * To be called once, before the store is used by its owner's thread
+     */
+    @WorkerThread
+    public void load() {
+        if (!mFile.exists()) return;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(mFile))) {
+            if (in.readInt() != MAGIC) return;
+            byte[] bytes = new byte[(int) Math.max(mFile.length() - HEADER_SIZE, 0)];
+            in.readFully(bytes);
+            // built before it is published
+            BitSet drawn = BitSet.valueOf(bytes);
+            synchronized (this) {
+                if (!mCleared) mDrawn = drawn;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot read draw state", e);
+        }
+    }
+
+    /**
+     * Get the next drawn id, to iterate over the drawn ids
+     * @param fromId    The first id to check
+     * @return The first drawn id greater than or equal to fromId, or -1 if there is none
+     */
+    public int nextDrawn(int fromId) {
+        return mDrawn.nextSetBit(fromId);
+    }
+
+    /**
+     * Record that an id was drawn
+     * @param id    The drawn id
+     */
+    public void markDrawn(int id) {
+        BitSet drawn = mDrawn;
+        if (drawn.get(id)) return;
+        drawn.set(id);
+        writeByteOf(drawn, id);
+    }
+
+    /**
+     * Record that an id is drawable again, or not in the pool anymore
+     * @param id    The id
+     */
+    public void markDrawable(int id) {
+        BitSet drawn = mDrawn;
+        if (!drawn.get(id)) return;
+        drawn.clear(id);
+        writeByteOf(drawn, id);
+    }
+
+    /**
+     * Forget all draws
+     */
+    public void clear() {
+        synchronized (this) {
+            mCleared = true;
+            mDrawn = new BitSet();
+        }
+        mWriter.execute(() -> {
+            try {
+                output().setLength(HEADER_SIZE);
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot clear draw state", e);
+            }
+        });
+    }
+
+    /**
+     * Release the file once the pending writes are done
+     */
+    public void close() {
+        mWriter.execute(() -> {
+            try {
+                if (mOutput != null) mOutput.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot close draw state", e);
+            }
+        });
+        mWriter.shutdown();
+    }
+
+    /* Write the byte holding the bit of an id, in BitSet.valueOf order. The byte is read on the calling thread */
+    private void writeByteOf(BitSet drawn, int id) {
+        final int index = id >>> 3;
+        int value = 0;
+        for (int b = 0; b < 8; b++)
+            if (drawn.get((index << 3) + b)) value |= (1 << b);
+        final int byteValue = value;
+        mWriter.execute(() -> {
+            try {
+                RandomAccessFile output = output();
+                output.seek(HEADER_SIZE + (long) index);
+                output.write(byteValue);
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot write draw state", e);
+            }
+        });
+    }
+
+    /* The file opened for writing, with a valid header. Only called on the writer thread */
+    private RandomAccessFile output() throws IOException {
+        if (mOutput == null) {
+            mOutput = new RandomAccessFile(mFile, "rw");
+            boolean valid = mOutput.length() >= HEADER_SIZE;
+            if (valid) {
+                mOutput.seek(0);
+                valid = (mOutput.readInt() == MAGIC);
+            }
+            if (!valid) {
+                mOutput.setLength(0);
+                mOutput.writeInt(MAGIC);
+            }
+        }
+        return mOutput;
+    }
+}
@@ -0,0 +1,61 @@
+package com.technoprimates.captain.draw;
+
+/**
+ * A way of drawing <code>Stueck</code> ids at random from a pool.
+ *
+ * The pool is updated incrementally, id by id, when the set of drawable <code>Stueck</code> changes,
+ * so that the draw state (drawn ids, recent ids) survives the changes.
+ */
+public interface DrawStrategy {
+
+    /**
+     * Value returned when there is no id to draw
+     */
+    int NO_ID = -1;
+
+    /**
+     * Add an id to the pool. Nothing is done if the id is already in the pool
+     * @param id        The id to add
+     * @param weight    The weight of the id, used by weighted strategies only
+     */
+    void add(int id, int weight);
+
+    /**
+     * Remove an id from the pool. Nothing is done if the id is not in the pool
+     * @param id    The id to remove
+     */
+    void remove(int id);
+
+    /**
+     * Draw an id at random
+     * @return The drawn id, or NO_ID if no id can be drawn
+     */
+    int draw();
+
+    /**
+     * Exclude an id from the next draws as if it had just been drawn, for strategies keeping a draw state
+     * @param id    The id to exclude
+     * @return false if the id is not in the pool
+     */
+    boolean exclude(int id);
+
+    /**
+     * Forget the previous draws : all the ids of the pool become drawable again
+     */
+    void rewind();
+
+    /**
+     * Remove all the ids
+     */
+    void clear();
+
+    /**
+     * @return The number of ids that can be drawn next
+     */
+    int remaining();
+
+    /**
+     * @return The total number of ids in the pool
+     */
+    int size();
+}
@@ -0,0 +1,31 @@
+package com.technoprimates.captain.draw;
+
+import java.util.Arrays;
+
+/**
+ * Maps <code>Stueck</code> ids to their slot in a pool array.
+ * Database ids are small dense integers, the slots are stored in an array indexed by id.
+ */
+class IdSlots {
+
+    static final int NO_SLOT = -1;
+
+    private int[] mSlots = new int[0];
+
+    int get(int id) {
+        return (id < mSlots.length) ? mSlots[id] : NO_SLOT;
+    }
+
+    void put(int id, int slot) {
+        if (id >= mSlots.length) {
+            int oldLength = mSlots.length;
+            mSlots = Arrays.copyOf(mSlots, Math.max(id + 1, oldLength * 2));
+            Arrays.fill(mSlots, oldLength, mSlots.length, NO_SLOT);
+        }
+        mSlots[id] = slot;
+    }
+
+    void remove(int id) {
+        if (id < mSlots.length) mSlots[id] = NO_SLOT;
+    }
+}
@@ -0,0 +1,88 @@
+package com.technoprimates.captain.draw;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The changes between two sets of drawable <code>Stueck</code>, to be applied incrementally to a DrawStrategy.
+ * An id whose weight changed is removed and added again.
+ */
+public class PoolDelta {
+
+    private final int[] mRemovedIds;
+    private final int mRemovedCount;
+    private final int[] mAddedIds;
+    private final int[] mAddedWeights;
+    private final int mAddedCount;
+
+    private PoolDelta(int[] removedIds, int removedCount, int[] addedIds, int[] addedWeights, int addedCount) {
+        mRemovedIds = removedIds;
+        mRemovedCount = removedCount;
+        mAddedIds = addedIds;
+        mAddedWeights = addedWeights;
+        mAddedCount = addedCount;
+    }
+
+    /**
+     * Compute the changes between two sets of ids, both sorted by increasing id, in linear time
+     * @param oldIds        The previous ids
+     * @param oldWeights    The previous weights, by index of the ids
+     * @param oldCount      The number of previous ids
+     * @param newIds        The new ids
+     * @param newWeights    The new weights, by index of the ids
+     * @param newCount      The number of new ids
+     * @return The changes, turning the previous set into the new one
+     */
+    @NonNull
+    public static PoolDelta compute(int[] oldIds, int[] oldWeights, int oldCount,
+                                    int[] newIds, int[] newWeights, int newCount) {
+        int[] removed = new int[oldCount];
+        int[] added = new int[newCount];
+        int[] addedWeights = new int[newCount];
+        int nRemoved = 0;
+        int nAdded = 0;
+        int i = 0;
+        int j = 0;
+        while ((i < oldCount) || (j < newCount)) {
+            if ((j == newCount) || ((i < oldCount) && (oldIds[i] < newIds[j]))) {
+                removed[nRemoved++] = oldIds[i++];
+            } else if ((i == oldCount) || (newIds[j] < oldIds[i])) {
+                added[nAdded] = newIds[j];
+                addedWeights[nAdded++] = newWeights[j++];
+            } else {
+                if (oldWeights[i] != newWeights[j]) {
+                    removed[nRemoved++] = oldIds[i];
+                    added[nAdded] = newIds[j];
+                    addedWeights[nAdded++] = newWeights[j];
+                }
+                i++;
+                j++;
+            }
+        }
+        return new PoolDelta(removed, nRemoved, added, addedWeights, nAdded);
+    }
+
+    /**
+     * Apply the changes to a pool
+     * @param strategy  The pool to update
+     */
+    public void applyTo(@NonNull DrawStrategy strategy) {
+        for (int i = 0; i < mRemovedCount; i++) strategy.remove(mRemovedIds[i]);
+        for (int i = 0; i < mAddedCount; i++) strategy.add(mAddedIds[i], mAddedWeights[i]);
+    }
+
+    /**
+     * @return The number of removed ids, including the ids whose weight changed
+     */
+    public int getRemovedCount() {return mRemovedCount;}
+
+    /**
+     * @param i The index of the removed id, lower than getRemovedCount()
+     * @return The removed id
+     */
+    public int getRemovedId(int i) {return mRemovedIds[i];}
+
+    /**
+     * @return true if there is no change
+     */
+    public boolean isEmpty() {return (mRemovedCount == 0) && (mAddedCount == 0);}
+}
@@ -0,0 +1,143 @@
+package com.technoprimates.captain.draw;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * A pool of <code>Stueck</code> ids drawn at random with replacement, each id being drawn with a probability
+ * proportional to its weight. Ids with a zero weight are never drawn.
+ *
+ * The weights are stored in a Fenwick tree over the slots of the ids, so that drawing, adding and removing
+ * an id take O(log n) time. A removed id is replaced by the last one, keeping the slots contiguous.
+ */
+public class WeightedDrawPool implements DrawStrategy {
+
+    private int[] mIds = new int[16];
+    private int[] mWeights = new int[16];
+    /* Fenwick tree of the weights, 1-based : slot s is at index s + 1 */
+    private long[] mTree = new long[17];
+    private int mSize;
+    private int mPositive;
+    private final IdSlots mSlots = new IdSlots();
+
+    private final SplittableRandom mRandom;
+
+    /**
+     * Builds an empty pool with a random seed
+     */
+    public WeightedDrawPool() {
+        mRandom = new SplittableRandom();
+    }
+
+    /**
+     * Builds an empty pool with a given seed, drawing the same sequence for the same contents
+     * @param seed      The seed of the random generator
+     */
+    public WeightedDrawPool(long seed) {
+        mRandom = new SplittableRandom(seed);
+    }
+
+    @Override
+    public void add(int id, int weight) {
+        if (mSlots.get(id) != IdSlots.NO_SLOT) return;
+        if (weight < 0) weight = 0;
+        if (mSize == mIds.length) grow();
+        int slot = mSize++;
+        mIds[slot] = id;
+        mWeights[slot] = weight;
+        mSlots.put(id, slot);
+        addToTree(slot, weight);
+        if (weight > 0) mPositive++;
+    }
+
+    @Override
+    public void remove(int id) {
+        int slot = mSlots.get(id);
+        if (slot == IdSlots.NO_SLOT) return;
+        if (mWeights[slot] > 0) mPositive--;
+        addToTree(slot, -mWeights[slot]);
+        int last = mSize - 1;
+        if (slot != last) {
+            int lastWeight = mWeights[last];
+            addToTree(last, -lastWeight);
+            addToTree(slot, lastWeight);
+            mIds[slot] = mIds[last];
+            mWeights[slot] = lastWeight;
+            mSlots.put(mIds[slot], slot);
+        }
+        mSize--;
+        mSlots.remove(id);
+    }
+
+    @Override
+    public int draw() {
+        long total = prefixSum(mSize);
+        if (total <= 0) return NO_ID;
+        // find the slot whose cumulated weight range contains r
+        long r = mRandom.nextLong(total);
+        int pos = 0;
+        for (int step = Integer.highestOneBit(mTree.length - 1); step > 0; step >>= 1) {
+            int next = pos + step;
+            if ((next < mTree.length) && (mTree[next] <= r)) {
+                pos = next;
+                r -= mTree[next];
+            }
+        }
+        return mIds[pos];
+    }
+
+    /**
+     * Nothing is excluded, as the draws are made with replacement
+     */
+    @Override
+    public boolean exclude(int id) {
+        return mSlots.get(id) != IdSlots.NO_SLOT;
+    }
+
+    /**
+     * Nothing to do, as the draws are made with replacement
+     */
+    @Override
+    public void rewind() { }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < mSize; i++) mSlots.remove(mIds[i]);
+        Arrays.fill(mTree, 0L);
+        mSize = 0;
+        mPositive = 0;
+    }
+
+    /**
+     * @return The number of ids with a positive weight
+     */
+    @Override
+    public int remaining() {return mPositive;}
+
+    @Override
+    public int size() {return mSize;}
+
+    private void addToTree(int slot, long delta) {
+        for (int i = slot + 1; i < mTree.length; i += i & -i) mTree[i] += delta;
+    }
+
+    /* Sum of the weights of the first n slots */
+    private long prefixSum(int n) {
+        long sum = 0;
+        for (int i = n; i > 0; i -= i & -i) sum += mTree[i];
+        return sum;
+    }
+
+    /* Double the capacity, the tree is rebuilt in linear time */
+    private void grow() {
+        int capacity = mIds.length * 2;
+        mIds = Arrays.copyOf(mIds, capacity);
+        mWeights = Arrays.copyOf(mWeights, capacity);
+        mTree = new long[capacity + 1];
+        for (int i = 1; i <= mSize; i++) {
+            mTree[i] += mWeights[i - 1];
+            int parent = i + (i & -i);
+            if (parent <= capacity) mTree[parent] += mTree[i];
+        }
+    }
+}
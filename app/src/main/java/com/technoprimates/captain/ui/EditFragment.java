@@ -39,8 +39,9 @@ public class EditFragment extends Fragment {
 
     public static final String TAG = "EDIT FRAG";
 
-    // UI name and checkboxes
+    // UI name, weight and checkboxes
     private TextInputLayout mStueckName;
+    private TextInputLayout mStueckWeight;
     private final CheckBox[] mProfileCheckBox = new CheckBox[Profile.NB_CHECKBOX];
 
     // ViewModel scoped to the Activity
@@ -49,6 +50,9 @@ public class EditFragment extends Fragment {
     // Action to process (INSERT, UPDATE)
     private int mAction;
 
+    // true while the input is checked, the next clicks on save being ignored
+    private boolean mChecking;
+
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
 
@@ -86,6 +90,7 @@ public class EditFragment extends Fragment {
 
         // find text area and checkboxes in the layout
         mStueckName = getView().findViewById(R.id.stueck_name);
+        mStueckWeight = getView().findViewById(R.id.stueck_weight);
         for (int i = 0; i<Profile.NB_CHECKBOX ; i++) {
             String boxName = Profile.CHECKBOXNAME + i;
             int boxId = getResources().getIdentifier(boxName, "id", requireActivity().getPackageName());
@@ -98,13 +103,12 @@ public class EditFragment extends Fragment {
                 // update an existing Stueck available in the ViewModel
                 // fill the fields with existing Stueck
                 setString(mStueckName, mViewModel.getStueckToProcess().getName());
+                setString(mStueckWeight, String.valueOf(mViewModel.getStueckToProcess().getWeight()));
 
-                // Init checkboxes from unpacked values stored in the viewmodel current stueck
-                String boolFields = mViewModel.getStueckToProcess().getBoolFields();
-                assert (boolFields.length() == Profile.NB_CHECKBOX);
-
+                // Init checkboxes from the profile of the viewmodel current stueck
+                Profile profile = mViewModel.getStueckToProcess().getProfile();
                 for (int i = 0; i<Profile.NB_CHECKBOX ; i++) {
-                    mProfileCheckBox[i].setChecked(boolFields.charAt(i) != ' ');
+                    mProfileCheckBox[i].setChecked(profile.isEnabled(i));
                 }
 
                 // Set the fragment title
@@ -114,6 +118,7 @@ public class EditFragment extends Fragment {
             case Stueck.MODE_INSERT:
                 // insert a new Stueck : start with empty fields
                 setString(mStueckName, "");
+                setString(mStueckWeight, String.valueOf(Stueck.DEFAULT_WEIGHT));
                 for (int i = 0; i<Profile.NB_CHECKBOX ; i++) {
                     mProfileCheckBox[i].setChecked(true);
                 }
@@ -151,12 +156,11 @@ public class EditFragment extends Fragment {
         // get name
         String name = getString(mStueckName);
 
-        // fill a string with checkboxes values (' ' for false, 'X' for true)
-        StringBuilder sb = new StringBuilder();
+        // build the profile mask from the checkboxes values, bit i for checkbox i
+        int mask = 0;
         for (int i = 0; i<Profile.NB_CHECKBOX ; i++) {
-            sb.append(mProfileCheckBox[i].isChecked() ? 'X' : ' ');
+            if (mProfileCheckBox[i].isChecked()) mask |= (1 << i);
         }
-        String boolFields = sb.toString();
 
         // check name
         if (name.equals("")) {
@@ -168,15 +172,39 @@ public class EditFragment extends Fragment {
             mStueckName.setHelperTextEnabled(false);
         }
 
+        // get weight, an empty field meaning the default weight
+        int weight;
+        String weightString = getString(mStueckWeight);
+        try {
+            weight = weightString.isEmpty() ? Stueck.DEFAULT_WEIGHT : Integer.parseInt(weightString);
+        } catch (NumberFormatException e) {
+            mStueckWeight.setError(getString(R.string.err_invalid_weight));
+            mStueckWeight.requestFocus();
+            return null;
+        }
+        mStueckWeight.setError(null);
+
         // basic checks ok, build Stueck object with user input
-        return (new Stueck(name, boolFields));
+        Stueck stueck = new Stueck(name, Profile.of(mask));
+        stueck.setWeight(weight);
+        return stueck;
     }
 
     private void onSaveClicked () {
+        if (mChecking) return;
         Stueck stueck = getUserInput();
+        mChecking = true;
+
+        // perform checks via ViewModel, the name being looked up in the database
+        mViewModel.checkStueckBusinessLogic(stueck, mAction, result -> onStueckChecked(stueck, result));
+    }
 
-        // perform checks via ViewModel and handle errors
-        switch (mViewModel.checkStueckBusinessLogic(stueck, mAction)) {
+    // handle the errors of the checks, or save the Stueck
+    private void onStueckChecked(Stueck stueck, int result) {
+        mChecking = false;
+        // the view may be destroyed while the name is looked up
+        if (getView() == null) return;
+        switch (result) {
             // Stueck must be not null and stueck name must not be empty
             case StueckViewModel.NO_STUECK:
             case StueckViewModel.NO_STUECK_NAME:
@@ -186,6 +214,10 @@ public class EditFragment extends Fragment {
                 mStueckName.setError(getString(R.string.err_name_already_exists));
                 mStueckName.requestFocus();
                 return;
+            case StueckViewModel.INVALID_STUECK_WEIGHT:
+                mStueckWeight.setError(getString(R.string.err_invalid_weight));
+                mStueckWeight.requestFocus();
+                return;
             // Cannot overwrite existing stueck
             case StueckViewModel.INVALID_STUECK_BOOLEANS:
                 Snackbar snackbar = Snackbar.make(getView(), "invalid profile", Snackbar.LENGTH_LONG);
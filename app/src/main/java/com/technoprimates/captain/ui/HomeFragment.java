@@ -4,6 +4,7 @@ import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AdapterView;
 
 import androidx.annotation.NonNull;
 import androidx.fragment.app.Fragment;
@@ -15,7 +16,6 @@ import com.technoprimates.captain.StueckViewModel;
 import com.technoprimates.captain.databinding.FragmentHomeBinding;
 
 import java.util.List;
-import java.util.Random;
 
 public class HomeFragment extends Fragment {
 
@@ -44,13 +44,9 @@ public class HomeFragment extends Fragment {
 
         binding.textviewSecond.setText(String.valueOf(mStueckViewModel.nbNextNames()));
 
-        // observe livedata and update the profiled stücks list
-        mStueckViewModel.getAllStuecksList().observe(getViewLifecycleOwner(),
-                allStuecks -> {
-                    // update viewmodel's profiled stücks list
-                    mStueckViewModel.updateProfiledStuecksList();
-                    binding.textviewSecond.setText(String.valueOf(mStueckViewModel.nbNextNames()));
-                });
+        // observe the number of names to draw, available from the catalogue snapshot before the database is read
+        mStueckViewModel.getNextNamesCount().observe(getViewLifecycleOwner(),
+                count -> binding.textviewSecond.setText(String.valueOf(count)));
 
         binding.textviewFirst.setText(mStueckViewModel.getProfile().toString());
 
@@ -65,20 +61,33 @@ public class HomeFragment extends Fragment {
 
         // reset : rebuild nextnames list
         binding.buttonReset.setOnClickListener(view3 -> rebuildNames());
+
+        // draw mode selection, spinner positions match the viewmodel's draw modes
+        binding.spinnerDrawMode.setSelection(mStueckViewModel.getDrawMode());
+        binding.spinnerDrawMode.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                mStueckViewModel.setDrawMode(position);
+                binding.textviewSecond.setText(String.valueOf(mStueckViewModel.nbNextNames()));
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) { }
+        });
     }
 
-    // Pop a name from list and display it
+    // Draw a name from the pool and display it, once it is read
     private void displayName() {
-        int nbOfNames = mStueckViewModel.nbNextNames();
-        if ( nbOfNames== 0) {
-            binding.textviewThird.setText("No name to display");
-        } else {
-            // get random position in list
-            Random r = new Random();
-            int i = r.nextInt(nbOfNames);
-            binding.textviewThird.setText(mStueckViewModel.popNextName(i));
-            binding.textviewSecond.setText(String.valueOf(mStueckViewModel.nbNextNames()));
-        }
+        mStueckViewModel.drawNextName(name -> {
+            // the view may be destroyed while the name is read
+            if (binding == null) return;
+            if (name == null) {
+                binding.textviewThird.setText("No name to display");
+            } else {
+                binding.textviewThird.setText(name);
+                binding.textviewSecond.setText(String.valueOf(mStueckViewModel.nbNextNames()));
+            }
+        });
     }
 
     // Pop a name from list and display it
@@ -1,6 +1,5 @@
 package com.technoprimates.captain.ui;
 
-import android.annotation.SuppressLint;
 import android.hardware.biometrics.BiometricPrompt;
 import android.hardware.biometrics.BiometricPrompt.AuthenticationCallback;
 import android.os.Bundle;
@@ -13,7 +12,11 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Toast;
 
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
+import androidx.appcompat.widget.SearchView;
 import androidx.core.view.MenuProvider;
 import androidx.fragment.app.Fragment;
 import androidx.lifecycle.Lifecycle;
@@ -27,7 +30,10 @@ import com.google.android.material.snackbar.Snackbar;
 import com.technoprimates.captain.StueckViewModel;
 import com.technoprimates.captain.R;
 import com.technoprimates.captain.databinding.FragmentListBinding;
+import com.technoprimates.captain.db.ImportReport;
 import com.technoprimates.captain.db.Stueck;
+import com.technoprimates.captain.db.StueckExporter;
+import com.technoprimates.captain.db.StueckImporter;
 import com.technoprimates.captain.db.Utils;
 
 import java.util.List;
@@ -43,6 +49,35 @@ public class ListFragment extends Fragment implements StueckListAdapter.StueckAc
     // Adapter for the RecyclerView
     private StueckListAdapter adapter;
 
+    // Snackbar showing the progress of the running import
+    private Snackbar importSnackbar;
+
+    // Number of deletions which can be undone, enabling the undo menu item
+    private int undoCount;
+    private MenuItem undoMenuItem;
+
+    // Picks the file to import with the Storage Access Framework
+    private final ActivityResultLauncher<String[]> importFilePicker =
+            registerForActivityResult(new ActivityResultContracts.OpenDocument(), uri -> {
+                if (uri != null) mStueckViewModel.importUri(uri, StueckImporter.MODE_ADD);
+            });
+
+    // Picks the file to sync the table with, the names absent from the file being deleted
+    private final ActivityResultLauncher<String[]> syncFilePicker =
+            registerForActivityResult(new ActivityResultContracts.OpenDocument(), uri -> {
+                if (uri != null) mStueckViewModel.importUri(uri, StueckImporter.MODE_SYNC_DELETE);
+            });
+
+    // Create the files to export to, in each format
+    private final ActivityResultLauncher<String> textExportFileCreator =
+            registerForActivityResult(new ActivityResultContracts.CreateDocument("text/plain"), uri -> {
+                if (uri != null) mStueckViewModel.exportUri(uri, StueckExporter.FORMAT_TEXT);
+            });
+    private final ActivityResultLauncher<String> binaryExportFileCreator =
+            registerForActivityResult(new ActivityResultContracts.CreateDocument("application/octet-stream"), uri -> {
+                if (uri != null) mStueckViewModel.exportUri(uri, StueckExporter.FORMAT_BINARY);
+            });
+
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
 
@@ -51,6 +86,37 @@ public class ListFragment extends Fragment implements StueckListAdapter.StueckAc
             @Override
             public void onCreateMenu(@NonNull Menu menu, @NonNull MenuInflater menuInflater) {
                 menuInflater.inflate(R.menu.menu_list, menu);
+
+                // search box : list only the names starting with the typed text
+                SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+                searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+                    @Override
+                    public boolean onQueryTextSubmit(String query) {
+                        mStueckViewModel.setSearchText(query);
+                        return true;
+                    }
+
+                    @Override
+                    public boolean onQueryTextChange(String newText) {
+                        mStueckViewModel.setSearchText(newText);
+                        return true;
+                    }
+                });
+
+                // check the current sort mode
+                switch (mStueckViewModel.getSortMode()) {
+                    case StueckViewModel.SORT_BY_NAME:
+                        menu.findItem(R.id.action_sort_name).setChecked(true);
+                        break;
+                    case StueckViewModel.SORT_BY_DATE:
+                        menu.findItem(R.id.action_sort_date).setChecked(true);
+                        break;
+                    default:
+                        menu.findItem(R.id.action_sort_id).setChecked(true);
+                }
+
+                undoMenuItem = menu.findItem(R.id.action_undo);
+                undoMenuItem.setEnabled(undoCount > 0);
             }
 
             @Override
@@ -61,6 +127,10 @@ public class ListFragment extends Fragment implements StueckListAdapter.StueckAc
                             .navigate(R.id.action_ListFragment_to_ProfileFragment);
                     return true;
                 }
+                if (menuItem.getItemId() == R.id.action_undo) {
+                    mStueckViewModel.undoLastDelete();
+                    return true;
+                }
                 if (menuItem.getItemId() == R.id.action_settings) {
                     Toast.makeText(getActivity(), getString(R.string.toast_menu_settings), Toast.LENGTH_LONG).show();
                     return true;
@@ -73,6 +143,40 @@ public class ListFragment extends Fragment implements StueckListAdapter.StueckAc
                     Toast.makeText(getActivity(), getString(R.string.toast_menu_about), Toast.LENGTH_LONG).show();
                     return true;
                 }
+                if ((menuItem.getItemId() == R.id.action_sort_id)
+                        || (menuItem.getItemId() == R.id.action_sort_name)
+                        || (menuItem.getItemId() == R.id.action_sort_date)) {
+                    menuItem.setChecked(true);
+                    if (menuItem.getItemId() == R.id.action_sort_name)
+                        mStueckViewModel.setSortMode(StueckViewModel.SORT_BY_NAME);
+                    else if (menuItem.getItemId() == R.id.action_sort_date)
+                        mStueckViewModel.setSortMode(StueckViewModel.SORT_BY_DATE);
+                    else
+                        mStueckViewModel.setSortMode(StueckViewModel.SORT_BY_ID);
+                    return true;
+                }
+                if (menuItem.getItemId() == R.id.action_import) {
+                    importFilePicker.launch(new String[]{"text/*", "application/gzip"});
+                    return true;
+                }
+                if (menuItem.getItemId() == R.id.action_sync) {
+                    new AlertDialog.Builder(requireContext())
+                            .setTitle(R.string.sync_confirm_title)
+                            .setMessage(R.string.sync_confirm_message)
+                            .setPositiveButton(android.R.string.ok,
+                                    (dialog, which) -> syncFilePicker.launch(new String[]{"text/*", "application/gzip"}))
+                            .setNegativeButton(android.R.string.cancel, null)
+                            .show();
+                    return true;
+                }
+                if (menuItem.getItemId() == R.id.action_export_text) {
+                    textExportFileCreator.launch("captain.txt");
+                    return true;
+                }
+                if (menuItem.getItemId() == R.id.action_export_binary) {
+                    binaryExportFileCreator.launch("captain.stk");
+                    return true;
+                }
                 if (menuItem.getItemId() == R.id.action_load) {
                     Utils.loadAssets(requireContext(), mStueckViewModel);
                     return true;
@@ -108,12 +212,14 @@ public class ListFragment extends Fragment implements StueckListAdapter.StueckAc
     @Override
     public void onDestroyView() {
         super.onDestroyView();
+        importSnackbar = null;
+        undoMenuItem = null;
         binding = null;
     }
 
     //Sets the RecyclerView
     private void recyclerSetup() {
-        adapter = new StueckListAdapter(R.layout.stueck_item, this, mStueckViewModel);
+        adapter = new StueckListAdapter(R.layout.stueck_item, this);
         binding.stueckRecycler.setLayoutManager(new LinearLayoutManager(getContext()));
         binding.stueckRecycler.setAdapter(adapter);
 
@@ -135,17 +241,88 @@ public class ListFragment extends Fragment implements StueckListAdapter.StueckAc
     }
 
 
-    /*  Observe the LiveData List of all stücks
-     Update viewmodel list of profiled stücks when this list is modified and refresh RV
+    /*  Observe the LiveData paged list of profiled stücks
+     Submit the pages to the RV adapter, which dispatches only the changed items
      */
-    @SuppressLint("NotifyDataSetChanged")
     private void observerSetup() {
-        mStueckViewModel.getAllStuecksList().observe(getViewLifecycleOwner(),
-                allStuecks -> {
-                    // update viewmodel's profiled stücks list and update RV
-                    mStueckViewModel.updateProfiledStuecksList();
-                    adapter.notifyDataSetChanged();
-                });
+        mStueckViewModel.getPagedStuecks().observe(getViewLifecycleOwner(),
+                pagingData -> adapter.submitData(getViewLifecycleOwner().getLifecycle(), pagingData));
+        mStueckViewModel.getImportReport().observe(getViewLifecycleOwner(), this::showImportReport);
+        mStueckViewModel.getExportResult().observe(getViewLifecycleOwner(), this::showExportResult);
+        mStueckViewModel.getUndoCount().observe(getViewLifecycleOwner(), count -> {
+            undoCount = (count == null) ? 0 : count;
+            // updated in place, rebuilding the menu would reset the search box
+            if (undoMenuItem != null) undoMenuItem.setEnabled(undoCount > 0);
+        });
+    }
+
+    /* Show the progress of the running import in a snackbar with a cancel button, then its result */
+    private void showImportReport(ImportReport report) {
+        if (report == null) return;
+        if (!report.isFinished()) {
+            String text = (report.getPercent() >= 0)
+                    ? getString(R.string.import_running_percent, report.getPercent())
+                    : getString(R.string.import_running, report.getLineCount());
+            if (importSnackbar == null) {
+                importSnackbar = Snackbar.make(binding.stueckRecycler, text, Snackbar.LENGTH_INDEFINITE);
+                importSnackbar.setAction(R.string.import_cancel, view -> mStueckViewModel.cancelImport());
+                importSnackbar.show();
+            } else {
+                importSnackbar.setText(text);
+            }
+            return;
+        }
+
+        if (importSnackbar != null) importSnackbar.dismiss();
+        importSnackbar = null;
+        switch (report.getState()) {
+            case ImportReport.STATE_DONE:
+                String summary = (report.getMode() == StueckImporter.MODE_ADD)
+                        ? getString(R.string.import_done, report.getInsertedCount(),
+                                report.getDuplicateCount(), report.getRejectedCount())
+                        : getString(R.string.sync_done, report.getInsertedCount(), report.getUpdatedCount(),
+                                report.getDeletedCount(), report.getDuplicateCount(), report.getRejectedCount());
+                Snackbar snackbar = Snackbar.make(binding.stueckRecycler, summary, Snackbar.LENGTH_LONG);
+                if (!report.getRejectedLines().isEmpty())
+                    snackbar.setAction(R.string.import_details, view -> showRejectedLines(report));
+                snackbar.show();
+                break;
+            case ImportReport.STATE_CANCELLED:
+                Snackbar.make(binding.stueckRecycler,
+                        getString(R.string.import_cancelled, report.getInsertedCount()), Snackbar.LENGTH_LONG).show();
+                break;
+            default:
+                Snackbar.make(binding.stueckRecycler, R.string.import_failed, Snackbar.LENGTH_LONG).show();
+        }
+        // shown once
+        mStueckViewModel.clearImportReport();
+    }
+
+    /* Show the result of an export, once */
+    private void showExportResult(Integer count) {
+        if (count == null) return;
+        String text = (count == StueckExporter.EXPORT_FAILED)
+                ? getString(R.string.export_failed) : getString(R.string.export_done, count);
+        Snackbar.make(binding.stueckRecycler, text, Snackbar.LENGTH_LONG).show();
+        mStueckViewModel.clearExportResult();
+    }
+
+    /* List the rejected lines of an import in a dialog */
+    private void showRejectedLines(ImportReport report) {
+        StringBuilder sb = new StringBuilder();
+        for (ImportReport.RejectedLine line : report.getRejectedLines()) {
+            int reason = (line.getReason() == ImportReport.RejectedLine.REASON_NO_NAME)
+                    ? R.string.import_reason_no_name : R.string.import_reason_invalid_profile;
+            sb.append(getString(R.string.import_rejected_line, line.getLineNumber(), getString(reason), line.getText()))
+                    .append('\n');
+        }
+        if (report.getRejectedCount() > report.getRejectedLines().size())
+            sb.append(getString(R.string.import_more_rejected, report.getRejectedCount() - report.getRejectedLines().size()));
+        new AlertDialog.Builder(requireContext())
+                .setTitle(R.string.import_rejected_title)
+                .setMessage(sb)
+                .setPositiveButton(android.R.string.ok, null)
+                .show();
     }
 
 
@@ -176,16 +353,9 @@ public class ListFragment extends Fragment implements StueckListAdapter.StueckAc
         mStueckViewModel.selectStueckToProcess(stueck);
         mStueckViewModel.deleteStueck();
 
-        // show snackbar with undo button
+        // show snackbar with undo button, undoing the deletion of this Stueck whatever the deletions made since
         Snackbar snackbar = Snackbar.make(binding.stueckRecycler, "Stueck deleted at pos : "+pos, Snackbar.LENGTH_LONG);
-        //
-        snackbar.setAction("UNDO", view -> {
-            // Set in the ViewModel the action to process, and the Stueck to process
-            mStueckViewModel.selectActionToProcess(Stueck.MODE_INSERT);
-            mStueckViewModel.selectStueckToProcess(stueck);
-            // Re-insert the Stueck
-            mStueckViewModel.reInsertStueck();
-        });
+        snackbar.setAction("UNDO", view -> mStueckViewModel.undoDelete(stueck));
         snackbar.show();
     }
 }
\ No newline at end of file
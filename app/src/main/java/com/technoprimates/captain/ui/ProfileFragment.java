@@ -70,14 +70,14 @@ public class ProfileFragment extends Fragment {
 
     private void onSaveClicked () {
 
-        // build a string with checkboxes values (' ' for false, 'X' for true)
-        StringBuilder sb = new StringBuilder();
+        // build the profile mask from the checkboxes values, bit i for checkbox i
+        int mask = 0;
         for (int i = 0; i<Profile.NB_CHECKBOX ; i++) {
-            sb.append(mProfileCheckBox[i].isChecked() ? 'X' : ' ');
+            if (mProfileCheckBox[i].isChecked()) mask |= (1 << i);
         }
 
         // store the new profile in the Viewmodel
-        boolean result = mViewModel.setProfile(sb.toString());
+        boolean result = mViewModel.setProfile(Profile.of(mask));
 
         // if ok navigate up, else display an error
         if (result)
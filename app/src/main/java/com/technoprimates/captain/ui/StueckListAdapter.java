@@ -6,15 +6,22 @@ import android.view.ViewGroup;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import androidx.recyclerview.widget.RecyclerView;
+import androidx.paging.PagingDataAdapter;
+import androidx.recyclerview.widget.DiffUtil;
 
-import com.technoprimates.captain.StueckViewModel;
 import com.technoprimates.captain.db.Stueck;
 
 
-import java.util.List;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Objects;
 
-public class StueckListAdapter extends RecyclerView.Adapter<StueckViewHolder> {
+/**
+ * Adapter displaying the paged list of profiled Stücks.
+ * <p>Pages are submitted with <code>submitData</code> and loaded as the list is scrolled. The differences
+ * with the displayed items are computed off the main thread, and only the changed items are rebound.</p>
+ */
+public class StueckListAdapter extends PagingDataAdapter<Stueck, StueckViewHolder> {
 
     /**
      * Interface definition for a callback to be invoked when a Stueck object is clicked on a list
@@ -28,33 +35,47 @@ public class StueckListAdapter extends RecyclerView.Adapter<StueckViewHolder> {
         void onStueckClicked(Stueck item);
     }
 
-    private final int mStueckItemLayout;
+    /**
+     * Items are identified by their database id, and have the same contents if their user-visible fields are equal
+     */
+    public static final DiffUtil.ItemCallback<Stueck> DIFF_CALLBACK = new DiffUtil.ItemCallback<Stueck>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Stueck oldItem, @NonNull Stueck newItem) {
+            return oldItem.getId() == newItem.getId();
+        }
 
-    // The viewmodel's list of good profiled stücks to be displayed in the RecyclerView
-    // This is a reference which is set in the adapter constructor and doesn't change thereafter
-    // the content of the list itself is changed in the viewmodel when its updateProfilesStuecksList method is called
-    private final List<Stueck> mProfiledStuecksList;
+        @Override
+        public boolean areContentsTheSame(@NonNull Stueck oldItem, @NonNull Stueck newItem) {
+            return Objects.equals(oldItem.getName(), newItem.getName())
+                    && (oldItem.getUpdateDay() == newItem.getUpdateDay())
+                    && (oldItem.getProfileMask() == newItem.getProfileMask());
+        }
+    };
+
+    // Display format of the update days
+    private static final DateTimeFormatter DAY_FORMATTER = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+
+    private final int mStueckItemLayout;
 
     // An implementation of the StueckActionListener interface to call back when an item is clicked
     private final StueckActionListener mListener;
 
 
-    // constructor with viewmodel to get a reference to the profiled stück list
-    public StueckListAdapter(int layoutId, StueckActionListener listener, StueckViewModel stueckViewModel) {
+    public StueckListAdapter(int layoutId, StueckActionListener listener) {
+        super(DIFF_CALLBACK);
         mStueckItemLayout = layoutId;
         this.mListener = listener;
-        mProfiledStuecksList = stueckViewModel.getProfiledStuecksList();
     }
 
+    /**
+     * Get the Stueck displayed at a position, without triggering a page load
+     * @param pos   The adapter position
+     * @return The Stueck, or null if the position is invalid or not loaded yet
+     */
     @Nullable
     public Stueck getStueckAtPos(int pos) {
-        Stueck stueck;
-        try {
-            stueck = mProfiledStuecksList.get(pos);
-        } catch (Exception e) {
-            return null;
-        }
-        return stueck;
+        if ((pos < 0) || (pos >= getItemCount())) return null;
+        return peek(pos);
     }
 
     @NonNull
@@ -66,15 +87,24 @@ public class StueckListAdapter extends RecyclerView.Adapter<StueckViewHolder> {
 
     @Override
     public void onBindViewHolder(@NonNull final StueckViewHolder holder, final int listPosition) {
-        //holder.stueckId.setText("text");
-        holder.stueckId.setText(String.valueOf(mProfiledStuecksList.get(listPosition).getId()));
-        holder.stueckName.setText(mProfiledStuecksList.get(listPosition).getName());
-        holder.stueckUpdateDay.setText(mProfiledStuecksList.get(listPosition).getUpdateDay());
+        Stueck stueck = getItem(listPosition);
+        if (stueck == null) {
+            // placeholder for a row whose page is not loaded yet
+            holder.stueckId.setText("");
+            holder.stueckName.setText("");
+            holder.stueckUpdateDay.setText("");
+            holder.itemView.setOnClickListener(null);
+            return;
+        }
+        holder.stueckId.setText(String.valueOf(stueck.getId()));
+        holder.stueckName.setText(stueck.getName());
+        // the day is formatted only for the bound rows
+        holder.stueckUpdateDay.setText(formatDay(stueck.getUpdateDay()));
         holder.itemView.setOnClickListener(view -> mListener.onStueckClicked(getStueckAtPos(holder.getBindingAdapterPosition())));
     }
 
-    @Override
-    public int getItemCount() {
-        return mProfiledStuecksList.size();
+    /* Format an update day for display, an unknown day being left blank */
+    private static String formatDay(int day) {
+        return (day == Stueck.UNKNOWN_DAY) ? "" : LocalDate.ofEpochDay(day).format(DAY_FORMATTER);
     }
 }
@@ -0,0 +1,164 @@
+package com.technoprimates.captain.db;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of CatalogueSnapshot, written to and mapped from a temporary file.
+ */
+public class CatalogueSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writeThenMap_readsBackAllRecords() throws IOException {
+        File file = new File(folder.getRoot(), "catalogue.snap");
+        List<Stueck> stuecks = Arrays.asList(
+                stueck(3, "Erlkönig", Profile.ALL_MASK, Stueck.DEFAULT_WEIGHT),
+                stueck(7, "", 0x1ABC, 5),
+                stueck(12, "Ça ira €", 0x49, Stueck.MAX_WEIGHT));
+
+        CatalogueSnapshot.write(file, stuecks);
+        CatalogueSnapshot snapshot = CatalogueSnapshot.map(file);
+
+        assertNotNull(snapshot);
+        assertEquals(3, snapshot.size());
+        for (int i = 0; i < stuecks.size(); i++) {
+            Stueck stueck = stuecks.get(i);
+            assertEquals(stueck.getId(), snapshot.getId(i));
+            assertEquals(stueck.getProfileMask(), snapshot.getProfileMask(i));
+            assertEquals(stueck.getWeight(), snapshot.getWeight(i));
+            assertEquals(stueck.getName(), snapshot.getName(i));
+        }
+    }
+
+    @Test
+    public void indexOfId_findsTheRecordOrReturnsMinusOne() throws IOException {
+        File file = new File(folder.getRoot(), "catalogue.snap");
+        List<Stueck> stuecks = new ArrayList<>();
+        for (int id = 2; id <= 2000; id += 2) stuecks.add(stueck(id, "Stück " + id, Profile.ALL_MASK, 1));
+
+        CatalogueSnapshot.write(file, stuecks);
+        CatalogueSnapshot snapshot = CatalogueSnapshot.map(file);
+
+        assertNotNull(snapshot);
+        assertEquals(0, snapshot.indexOfId(2));
+        assertEquals(499, snapshot.indexOfId(1000));
+        assertEquals(999, snapshot.indexOfId(2000));
+        assertEquals(-1, snapshot.indexOfId(1));
+        assertEquals(-1, snapshot.indexOfId(1001));
+        assertEquals(-1, snapshot.indexOfId(2002));
+        assertEquals("Stück 1000", snapshot.getName(snapshot.indexOfId(1000)));
+    }
+
+    @Test
+    public void writeThenMap_emptyList_givesAnEmptySnapshot() throws IOException {
+        File file = new File(folder.getRoot(), "catalogue.snap");
+
+        CatalogueSnapshot.write(file, Collections.emptyList());
+        CatalogueSnapshot snapshot = CatalogueSnapshot.map(file);
+
+        assertNotNull(snapshot);
+        assertEquals(0, snapshot.size());
+        assertEquals(-1, snapshot.indexOfId(1));
+    }
+
+    @Test
+    public void writeFromTable_walksTheTableAcrossCursors() throws IOException {
+        File file = new File(folder.getRoot(), "catalogue.snap");
+        FakeStueckTable table = new FakeStueckTable();
+        // more than two cursors of 5000 rows, the last one partial
+        int count = 12_001;
+        for (int i = 1; i <= count; i++) table.add("Stück " + i, i & Profile.ALL_MASK);
+        table.get("Stück 7").weight = 5;
+        table.softDelete(table.get("Stück 9").id);
+
+        CatalogueSnapshot.write(file, table.dao());
+        CatalogueSnapshot snapshot = CatalogueSnapshot.map(file);
+
+        assertNotNull(snapshot);
+        assertEquals(count - 1, snapshot.size());
+        assertEquals(-1, snapshot.indexOfId(9));
+        int index = snapshot.indexOfId(7);
+        assertEquals("Stück 7", snapshot.getName(index));
+        assertEquals(7, snapshot.getProfileMask(index));
+        assertEquals(5, snapshot.getWeight(index));
+        index = snapshot.indexOfId(count);
+        assertEquals(count - 2, index);
+        assertEquals("Stück " + count, snapshot.getName(index));
+        assertEquals(Stueck.DEFAULT_WEIGHT, snapshot.getWeight(index));
+        assertFalse(new File(file.getPath() + ".names").exists());
+    }
+
+    @Test
+    public void map_missingOrEmptyFile_returnsNull() throws IOException {
+        assertNull(CatalogueSnapshot.map(new File(folder.getRoot(), "missing.snap")));
+        assertNull(CatalogueSnapshot.map(folder.newFile("empty.snap")));
+    }
+
+    @Test
+    public void map_truncatedFile_returnsNull() throws IOException {
+        File file = new File(folder.getRoot(), "catalogue.snap");
+        CatalogueSnapshot.write(file, Arrays.asList(stueck(1, "Erster", Profile.ALL_MASK, 1),
+                stueck(2, "Zweiter", Profile.ALL_MASK, 1)));
+        long length = file.length();
+
+        // cut in the names, then in the fixed regions, then in the header
+        for (long truncated : new long[]{length - 1, length - 10, 12, 6}) {
+            try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+                output.setLength(truncated);
+            }
+            assertNull("truncated to " + truncated, CatalogueSnapshot.map(file));
+        }
+    }
+
+    @Test
+    public void map_wrongMagic_returnsNull() throws IOException {
+        File file = new File(folder.getRoot(), "catalogue.snap");
+        CatalogueSnapshot.write(file, Collections.singletonList(stueck(1, "Erster", Profile.ALL_MASK, 1)));
+        try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+            output.writeInt(0x53544B31);
+        }
+
+        assertNull(CatalogueSnapshot.map(file));
+    }
+
+    @Test
+    public void write_replacingTheFile_keepsThePreviousMappingValid() throws IOException {
+        File file = new File(folder.getRoot(), "catalogue.snap");
+        CatalogueSnapshot.write(file, Collections.singletonList(stueck(1, "Alt", Profile.ALL_MASK, 1)));
+        CatalogueSnapshot previous = CatalogueSnapshot.map(file);
+
+        CatalogueSnapshot.write(file, Arrays.asList(stueck(4, "Neu", Profile.ALL_MASK, 1),
+                stueck(5, "Neuer", Profile.ALL_MASK, 1)));
+        CatalogueSnapshot next = CatalogueSnapshot.map(file);
+
+        assertNotNull(previous);
+        assertEquals(1, previous.size());
+        assertEquals("Alt", previous.getName(0));
+        assertNotNull(next);
+        assertEquals(2, next.size());
+        assertEquals("Neuer", next.getName(1));
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+        assertFalse(new File(file.getPath() + ".names").exists());
+    }
+
+    private static Stueck stueck(int id, String name, int mask, int weight) {
+        Stueck stueck = new Stueck(name, Profile.of(mask));
+        stueck.setId(id);
+        stueck.setWeight(weight);
+        return stueck;
+    }
+}
@@ -0,0 +1,188 @@
+package com.technoprimates.captain.db;
+
+import android.database.Cursor;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * In-memory stuecks table behind a <code>StueckDao</code>, for the local unit tests of the classes reading
+ * and writing the table in bulk. Names are unique, soft-deleted rows included, as with the unique index.
+ * The undo journal only keeps the ids of its entries. Only the DAO methods used by the importer, the exporter
+ * and the catalogue snapshot are implemented.
+ */
+final class FakeStueckTable {
+
+    /* A row of the table */
+    static final class Row {
+        final int id;
+        final String name;
+        int mask;
+        int updateDay;
+        int weight = Stueck.DEFAULT_WEIGHT;
+        boolean deleted;
+
+        Row(int id, String name, int mask, int updateDay) {
+            this.id = id;
+            this.name = name;
+            this.mask = mask;
+            this.updateDay = updateDay;
+        }
+    }
+
+    private final Map<Integer, Row> mRows = new TreeMap<>();
+    // the ids of the undo journal entries
+    private final Set<Integer> mJournal = new HashSet<>();
+    private int mLastId;
+    private int mUpdateCount;
+
+    /**
+     * @return A DAO reading and writing this table
+     */
+    StueckDao dao() {
+        return (StueckDao) Proxy.newProxyInstance(StueckDao.class.getClassLoader(), new Class<?>[]{StueckDao.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "insertStuecks":
+                            return insertStuecks(cast(args[0]));
+                        case "getIdsAndMasks":
+                            return getIdsAndMasks();
+                        case "getIdsAndMasksByName":
+                            return getIdsAndMasksByName(cast(args[0]));
+                        case "getStuecksAfter":
+                            return getStuecksAfter((int) args[0], (int) args[1]);
+                        case "updateProfileMask":
+                            updateProfileMask((int) args[0], (int) args[1], (int) args[2]);
+                            return null;
+                        case "deleteStuecks":
+                            for (int id : (int[]) args[0]) mRows.remove(id);
+                            return null;
+                        case "getMaxId":
+                            int maxId = 0;
+                            for (int id : mRows.keySet()) maxId = Math.max(maxId, id);
+                            return maxId;
+                        case "countDeleted":
+                            return mRows.size() - rows().size();
+                        case "deleteUndoEntriesByNames":
+                            List<String> journaledNames = cast(args[0]);
+                            for (Row row : mRows.values())
+                                if (row.deleted && journaledNames.contains(row.name)) mJournal.remove(row.id);
+                            return null;
+                        case "purgeDeletedByNames":
+                            List<String> deletedNames = cast(args[0]);
+                            mRows.values().removeIf(row -> row.deleted && deletedNames.contains(row.name));
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    /**
+     * Insert a row
+     * @return The id of the new row
+     */
+    int add(String name, int mask) {
+        return add(mLastId + 1, name, mask);
+    }
+
+    /**
+     * Insert a row with a given id, the next rows getting higher ids
+     * @return The id of the new row
+     */
+    int add(int id, String name, int mask) {
+        mRows.put(id, new Row(id, name, mask, Stueck.UNKNOWN_DAY));
+        mLastId = Math.max(mLastId, id);
+        return id;
+    }
+
+    /**
+     * Soft-delete a row, journaling its deletion as done by the repository
+     */
+    void softDelete(int id) {
+        mRows.get(id).deleted = true;
+        mJournal.add(id);
+    }
+
+    /**
+     * @return true if the undo journal holds an entry for this id
+     */
+    boolean isJournaled(int id) {return mJournal.contains(id);}
+
+    /**
+     * @return The row with this name, soft-deleted or not, or null if there is none
+     */
+    Row get(String name) {
+        for (Row row : mRows.values())
+            if (row.name.equals(name)) return row;
+        return null;
+    }
+
+    /**
+     * @return The rows which are not soft-deleted, ordered by id
+     */
+    List<Row> rows() {
+        List<Row> rows = new ArrayList<>();
+        for (Row row : mRows.values())
+            if (!row.deleted) rows.add(row);
+        return rows;
+    }
+
+    /**
+     * @return The number of rows updated by updateProfileMask
+     */
+    int updateCount() {return mUpdateCount;}
+
+    private long[] insertStuecks(List<Stueck> stuecks) {
+        long[] ids = new long[stuecks.size()];
+        for (int i = 0; i < ids.length; i++) {
+            Stueck stueck = stuecks.get(i);
+            if (get(stueck.getName()) != null) {
+                ids[i] = -1;
+            } else {
+                Row row = new Row(++mLastId, stueck.getName(), stueck.getProfileMask(), stueck.getUpdateDay());
+                mRows.put(row.id, row);
+                ids[i] = row.id;
+            }
+        }
+        return ids;
+    }
+
+    private Cursor getIdsAndMasks() {
+        List<Object[]> result = new ArrayList<>();
+        for (Row row : rows()) result.add(new Object[]{row.id, row.mask});
+        return TestCursors.of(result);
+    }
+
+    private Cursor getIdsAndMasksByName(List<String> names) {
+        List<Object[]> result = new ArrayList<>();
+        for (Row row : rows())
+            if (names.contains(row.name)) result.add(new Object[]{row.id, row.name, row.mask});
+        return TestCursors.of(result);
+    }
+
+    private Cursor getStuecksAfter(int afterId, int limit) {
+        List<Object[]> result = new ArrayList<>();
+        for (Row row : rows())
+            if ((row.id > afterId) && (result.size() < limit)) result.add(new Object[]{row.id, row.mask, row.name, row.weight});
+        return TestCursors.of(result);
+    }
+
+    private void updateProfileMask(int id, int mask, int updateDay) {
+        Row row = mRows.get(id);
+        if (row == null) return;
+        row.mask = mask;
+        row.updateDay = updateDay;
+        mUpdateCount++;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T cast(Object value) {
+        return (T) value;
+    }
+}
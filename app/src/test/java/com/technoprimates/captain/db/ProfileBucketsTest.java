@@ -0,0 +1,123 @@
+package com.technoprimates.captain.db;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of ProfileBuckets, checked against a plain map of the ids to their masks.
+ */
+public class ProfileBucketsTest {
+
+    /* Two profiles without any common usage : the Stücks of one never match the other */
+    private static final int MASK_A = 1 | (1 << 3) | (1 << 6);
+    private static final int MASK_B = (1 << 1) | (1 << 4) | (1 << 7);
+
+    private final Profile.Matcher matchesAll = Profile.of(Profile.ALL_MASK).compile();
+    private final Profile.Matcher matchesA = Profile.of(MASK_A).compile();
+    private final Profile.Matcher matchesB = Profile.of(MASK_B).compile();
+
+    @Test
+    public void idsMatching_beforeLoad_returnsNull() {
+        ProfileBuckets buckets = new ProfileBuckets();
+        buckets.put(1, MASK_A);
+
+        assertFalse(buckets.isLoaded());
+        assertNull(buckets.idsMatching(matchesAll));
+    }
+
+    @Test
+    public void load_groupsIdsByMask() {
+        ProfileBuckets buckets = loaded(new Object[]{3, MASK_A}, new Object[]{1, MASK_B}, new Object[]{2, MASK_A});
+
+        assertTrue(buckets.isLoaded());
+        assertEquals(3, buckets.size());
+        assertArrayEquals(new int[]{1, 2, 3}, buckets.idsMatching(matchesAll));
+        assertArrayEquals(new int[]{2, 3}, buckets.idsMatching(matchesA));
+        assertArrayEquals(new int[]{1}, buckets.idsMatching(matchesB));
+    }
+
+    @Test
+    public void load_replacesContent() {
+        ProfileBuckets buckets = loaded(new Object[]{1, MASK_A}, new Object[]{2, MASK_A});
+
+        buckets.load(TestCursors.of(new Object[]{5, MASK_B}));
+
+        assertEquals(1, buckets.size());
+        assertArrayEquals(new int[0], buckets.idsMatching(matchesA));
+        assertArrayEquals(new int[]{5}, buckets.idsMatching(matchesB));
+    }
+
+    @Test
+    public void put_movesIdToItsNewBucket() {
+        ProfileBuckets buckets = loaded(new Object[]{1, MASK_A}, new Object[]{2, MASK_A});
+
+        buckets.put(2, MASK_B);
+        buckets.put(2, MASK_B);
+
+        assertEquals(2, buckets.size());
+        assertArrayEquals(new int[]{1}, buckets.idsMatching(matchesA));
+        assertArrayEquals(new int[]{2}, buckets.idsMatching(matchesB));
+    }
+
+    @Test
+    public void remove_swapsLastIdIntoHole() {
+        ProfileBuckets buckets = loaded(new Object[]{1, MASK_A}, new Object[]{2, MASK_A}, new Object[]{3, MASK_A},
+                new Object[]{4, MASK_A}, new Object[]{5, MASK_A});
+
+        buckets.remove(2);
+        // 5 took the position of 2 in the bucket
+        buckets.remove(5);
+        buckets.remove(5);
+        buckets.remove(42);
+
+        assertEquals(3, buckets.size());
+        assertArrayEquals(new int[]{1, 3, 4}, buckets.idsMatching(matchesA));
+        buckets.put(2, MASK_A);
+        assertArrayEquals(new int[]{1, 2, 3, 4}, buckets.idsMatching(matchesA));
+    }
+
+    @Test
+    public void randomUpdates_matchPlainMap() {
+        SplittableRandom random = new SplittableRandom(42);
+        int[] masks = {MASK_A, MASK_B, MASK_A | MASK_B, Profile.ALL_MASK, 0};
+        Profile.Matcher[] matchers = {matchesAll, matchesA, matchesB};
+        ProfileBuckets buckets = loaded();
+        Map<Integer, Integer> expected = new HashMap<>();
+
+        for (int step = 0; step < 5000; step++) {
+            int id = 1 + random.nextInt(200);
+            if (random.nextInt(3) == 0) {
+                buckets.remove(id);
+                expected.remove(id);
+            } else {
+                int mask = masks[random.nextInt(masks.length)];
+                buckets.put(id, mask);
+                expected.put(id, mask);
+            }
+            if (step % 100 != 0) continue;
+            assertEquals(expected.size(), buckets.size());
+            for (Profile.Matcher matcher : matchers)
+                assertArrayEquals(idsMatching(expected, matcher), buckets.idsMatching(matcher));
+        }
+    }
+
+    private static ProfileBuckets loaded(Object[]... rows) {
+        ProfileBuckets buckets = new ProfileBuckets();
+        buckets.load(TestCursors.of(rows));
+        return buckets;
+    }
+
+    private static int[] idsMatching(Map<Integer, Integer> masks, Profile.Matcher matcher) {
+        List<Integer> ids = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> entry : masks.entrySet())
+            if (matcher.matches(entry.getValue())) ids.add(entry.getKey());
+        return ids.stream().mapToInt(Integer::intValue).sorted().toArray();
+    }
+}
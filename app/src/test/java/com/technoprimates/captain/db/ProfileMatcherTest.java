@@ -0,0 +1,58 @@
+package com.technoprimates.captain.db;
+
+import org.junit.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of Profile.Matcher, checked against Profile.matches on all the possible profile masks.
+ */
+public class ProfileMatcherTest {
+
+    @Test
+    public void matches_sameAsProfile_forAllMasks() {
+        SplittableRandom random = new SplittableRandom(42);
+        int[] profiles = new int[64];
+        profiles[0] = Profile.ALL_MASK;
+        profiles[1] = 0;
+        profiles[2] = 1 | (1 << 3) | (1 << 6);
+        for (int i = 3; i < profiles.length; i++) profiles[i] = random.nextInt(Profile.ALL_MASK + 1);
+
+        for (int profileMask : profiles) {
+            Profile profile = Profile.of(profileMask);
+            Profile.Matcher matcher = profile.compile();
+            for (int mask = 0; mask <= Profile.ALL_MASK; mask++)
+                assertEquals("profile " + profileMask + ", mask " + mask, profile.matches(mask), matcher.matches(mask));
+        }
+    }
+
+    @Test
+    public void matches_needsAUsageOfEachGroup() {
+        Profile.Matcher matcher = Profile.of(Profile.ALL_MASK).compile();
+
+        assertTrue(matcher.matches(1 | (1 << 3) | (1 << 6)));
+        assertFalse(matcher.matches((1 << 3) | (1 << 6)));
+        assertFalse(matcher.matches(1 | (1 << 6)));
+        assertFalse(matcher.matches(1 | (1 << 3)));
+        assertFalse(matcher.matches(0));
+        assertFalse(Profile.of(0).compile().matches(Profile.ALL_MASK));
+    }
+
+    @Test
+    public void matches_ignoresBitsAboveProfile() {
+        Profile profile = Profile.of(0x1555);
+        Profile.Matcher matcher = profile.compile();
+
+        for (int mask = 0; mask <= Profile.ALL_MASK; mask++) {
+            assertEquals(matcher.matches(mask), matcher.matches(mask | (1 << Profile.NB_CHECKBOX)));
+            assertEquals(matcher.matches(mask), matcher.matches(mask | 0xFFFF0000));
+        }
+    }
+
+    @Test
+    public void getMask_isCompiledMask() {
+        assertEquals(0x1555, Profile.of(0x1555).compile().getMask());
+    }
+}
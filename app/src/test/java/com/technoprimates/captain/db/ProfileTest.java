@@ -0,0 +1,101 @@
+package com.technoprimates.captain.db;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of Profile, checking that the methods used when filtering Stuecks do not allocate.
+ * Allocations are counted with the per-thread allocation counter of the HotSpot JVM.
+ */
+public class ProfileTest {
+
+    private static final int ITERATIONS = 100_000;
+
+    /* Far below the 1.6 MB that a single 16-byte allocation per iteration would cost */
+    private static final long MAX_ALLOCATED_BYTES = 4096;
+
+    private com.sun.management.ThreadMXBean threadBean;
+
+    /* Consumes the results, so that the measured calls are not optimized away */
+    private int sink;
+
+    @Before
+    public void setUp() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threadBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @Test
+    public void of_returnsSharedInstances() {
+        assertSame(Profile.of(0x1555), Profile.of(0x1555));
+        assertSame(Profile.of(Profile.ALL_MASK), Profile.of("XXXXXXXXXXXXX"));
+        assertSame(Profile.of(Profile.ALL_MASK), Profile.of("invalid"));
+        assertEquals(0x1555, Profile.of(0x1555).getMask());
+    }
+
+    @Test
+    public void toString_isBuiltOnce() {
+        Profile profile = Profile.of(1 | 8 | 64);
+        assertEquals("X  X  X      ", profile.toString());
+        assertSame(profile.toString(), profile.toString());
+    }
+
+    @Test
+    public void stueckGetProfile_doesNotAllocate() {
+        Stueck stueck = new Stueck("name", Profile.of(1 | 8 | 64));
+        Profile current = Profile.of(Profile.ALL_MASK);
+        assertSame(stueck.getProfile(), stueck.getProfile());
+        // warm up
+        runGetProfile(stueck, current);
+
+        long before = allocatedBytes();
+        runGetProfile(stueck, current);
+        long allocated = allocatedBytes() - before;
+
+        assertTrue("getProfile allocated " + allocated + " bytes", allocated < MAX_ALLOCATED_BYTES);
+    }
+
+    @Test
+    public void hotPathMethods_doNotAllocate() {
+        Profile current = Profile.of(0x1555);
+        Profile.Matcher matcher = current.compile();
+        // warm up, and build the shared instances and their strings
+        runHotPath(current, matcher);
+
+        long before = allocatedBytes();
+        runHotPath(current, matcher);
+        long allocated = allocatedBytes() - before;
+
+        assertTrue("hot path allocated " + allocated + " bytes", allocated < MAX_ALLOCATED_BYTES);
+    }
+
+    private void runGetProfile(Stueck stueck, Profile current) {
+        for (int i = 0; i < ITERATIONS; i++) {
+            if (current.matches(stueck.getProfile())) sink++;
+        }
+    }
+
+    private void runHotPath(Profile current, Profile.Matcher matcher) {
+        for (int i = 0; i < ITERATIONS; i++) {
+            int mask = i & Profile.ALL_MASK;
+            Profile profile = Profile.of(mask);
+            if (current.matches(mask)) sink++;
+            if (matcher.matches(mask)) sink++;
+            if (profile.isEnabled(i % Profile.NB_CHECKBOX)) sink++;
+            sink += profile.getMask();
+            sink += profile.toString().length();
+        }
+    }
+
+    private long allocatedBytes() {
+        return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,174 @@
+package com.technoprimates.captain.db;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of StueckExporter, exporting an in-memory table.
+ */
+public class StueckExporterTest {
+
+    private static final String ALL = "XXXXXXXXXXXXX";
+    private static final String SOME = "XYYXYYXYYYYYY";
+
+    private final FakeStueckTable table = new FakeStueckTable();
+    private final StueckExporter exporter = new StueckExporter(table.dao());
+
+    @Test
+    public void export_emptyTable_writesNothingButTheHeader() throws IOException {
+        assertEquals("", new String(export(StueckExporter.FORMAT_TEXT), StandardCharsets.ISO_8859_1));
+        assertArrayEquals(new byte[]{'S', 'T', 'K', '1'}, export(StueckExporter.FORMAT_BINARY));
+    }
+
+    @Test
+    public void exportText_writesFillLines() throws IOException {
+        table.add("Erlkönig", Profile.maskFromString(ALL));
+        table.add("Im Abendrot", Profile.maskFromString(SOME));
+
+        String text = new String(export(StueckExporter.FORMAT_TEXT), StandardCharsets.ISO_8859_1);
+
+        assertEquals(ALL + "Erlkönig\n" + SOME + "Im Abendrot\n", text);
+    }
+
+    @Test
+    public void exportText_charsAboveLatin1_areWrittenAsQuestionMarks() throws IOException {
+        table.add("Ça ira €Œ", Profile.ALL_MASK);
+
+        String text = new String(export(StueckExporter.FORMAT_TEXT), StandardCharsets.ISO_8859_1);
+
+        assertEquals(ALL + "Ça ira ??\n", text);
+    }
+
+    @Test
+    public void exportText_isReadBackByTheImporter() throws IOException {
+        int mask = Profile.maskFromString(SOME);
+        table.add("Nacht und Träume", mask);
+
+        String line = new String(export(StueckExporter.FORMAT_TEXT), StandardCharsets.ISO_8859_1).trim();
+        Stueck stueck = StueckImporter.parseLine(line);
+
+        assertNotNull(stueck);
+        assertEquals("Nacht und Träume", stueck.getName());
+        assertEquals(mask, stueck.getProfileMask());
+    }
+
+    @Test
+    public void exportBinary_writesVarintsMaskAndUtf8Name() throws IOException {
+        table.add(1, "A", 0x1ABC);
+        // 300 = 0b10_0101100 : 0xAC 0x02
+        table.add(300, "€", Profile.ALL_MASK);
+        // 2^21 : three continuation bytes then 0x01
+        table.add(1 << 21, "", 7);
+
+        byte[] bytes = export(StueckExporter.FORMAT_BINARY);
+
+        assertArrayEquals(new byte[]{
+                'S', 'T', 'K', '1',
+                0x01, 0x1A, (byte) 0xBC, 0x01, 'A',
+                (byte) 0xAC, 0x02, 0x1F, (byte) 0xFF, 0x03, (byte) 0xE2, (byte) 0x82, (byte) 0xAC,
+                (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01, 0x00, 0x07, 0x00}, bytes);
+    }
+
+    @Test
+    public void exportBinary_nameLongerThanTheBuffer_isWrittenWhole() throws IOException {
+        char[] chars = new char[100 * 1024];
+        Arrays.fill(chars, 'é');
+        String name = new String(chars);
+        table.add(1, name, Profile.ALL_MASK);
+        table.add(2, "B", Profile.ALL_MASK);
+
+        ByteBuffer bytes = ByteBuffer.wrap(export(StueckExporter.FORMAT_BINARY));
+
+        assertEquals(0x53544B31, bytes.getInt());
+        assertEquals(1, getVarint(bytes));
+        assertEquals(Profile.ALL_MASK, bytes.getShort());
+        byte[] utf8 = new byte[getVarint(bytes)];
+        bytes.get(utf8);
+        assertEquals(name, new String(utf8, StandardCharsets.UTF_8));
+        assertEquals(2, getVarint(bytes));
+        assertEquals(Profile.ALL_MASK, bytes.getShort());
+        assertEquals(1, getVarint(bytes));
+        assertEquals('B', bytes.get());
+        assertFalse(bytes.hasRemaining());
+    }
+
+    @Test
+    public void export_walksTheTableAcrossCursors() throws IOException {
+        // more than two cursors of 5000 rows, the last one partial
+        int count = 12_001;
+        for (int i = 1; i <= count; i++) table.add("Stück " + i, Profile.ALL_MASK);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int exported = exporter.export(Channels.newChannel(out), StueckExporter.FORMAT_TEXT);
+
+        assertEquals(count, exported);
+        String[] lines = new String(out.toByteArray(), StandardCharsets.ISO_8859_1).split("\n");
+        assertEquals(count, lines.length);
+        for (int i = 0; i < count; i++) assertEquals(ALL + "Stück " + (i + 1), lines[i]);
+    }
+
+    @Test
+    public void export_tableSizeMultipleOfTheCursorSize_endsWithAnEmptyCursor() throws IOException {
+        for (int i = 1; i <= 10_000; i++) table.add("Stück " + i, Profile.ALL_MASK);
+
+        int exported = exporter.export(Channels.newChannel(new ByteArrayOutputStream()), StueckExporter.FORMAT_BINARY);
+
+        assertEquals(10_000, exported);
+    }
+
+    @Test
+    public void export_channelWritingPartially_getsAllTheBytes() throws IOException {
+        for (int i = 1; i <= 3000; i++) table.add("Stück " + i, Profile.ALL_MASK);
+        byte[] expected = export(StueckExporter.FORMAT_TEXT);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WritableByteChannel channel = Channels.newChannel(out);
+        // writes at most 7 bytes per call
+        WritableByteChannel slowChannel = new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                ByteBuffer part = src.slice();
+                part.limit(Math.min(7, part.remaining()));
+                int n = channel.write(part);
+                src.position(src.position() + n);
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {return true;}
+
+            @Override
+            public void close() { }
+        };
+        exporter.export(slowChannel, StueckExporter.FORMAT_TEXT);
+
+        assertArrayEquals(expected, out.toByteArray());
+    }
+
+    private byte[] export(int format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        exporter.export(Channels.newChannel(out), format);
+        return out.toByteArray();
+    }
+
+    private static int getVarint(ByteBuffer bytes) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = bytes.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
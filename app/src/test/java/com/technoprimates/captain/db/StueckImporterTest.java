@@ -0,0 +1,398 @@
+package com.technoprimates.captain.db;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of StueckImporter, importing into an in-memory table, the chunks being written at once
+ * on the importing thread without transaction.
+ */
+public class StueckImporterTest {
+
+    /* Valid profiles : at least one nature, one style and one criteria */
+    private static final String ALL = "XXXXXXXXXXXXX";
+    private static final String SOME = "XYYXYYXYYYYYY";
+    /* No style set */
+    private static final String NO_STYLE = "XXXYYYXXXXXXX";
+
+    private static final int DAY = 19000;
+
+    private final FakeStueckTable table = new FakeStueckTable();
+    private final ProfileBuckets buckets = new ProfileBuckets();
+    private final StueckImporter importer = new StueckImporter(table.dao(), Runnable::run, buckets);
+
+    @Test
+    public void checkLine_validLine_returnsZero() {
+        assertEquals(0, StueckImporter.checkLine(ALL + "Erlkönig"));
+        assertEquals(0, StueckImporter.checkLine(SOME + "Im Abendrot"));
+        assertEquals(0, StueckImporter.checkLine("X  X  X      " + "Nacht"));
+    }
+
+    @Test
+    public void checkLine_missingOrBlankName_isRejected() {
+        assertEquals(ImportReport.RejectedLine.REASON_NO_NAME, StueckImporter.checkLine(ALL));
+        assertEquals(ImportReport.RejectedLine.REASON_NO_NAME, StueckImporter.checkLine(ALL + "  \t"));
+        assertEquals(ImportReport.RejectedLine.REASON_NO_NAME, StueckImporter.checkLine("XXX"));
+    }
+
+    @Test
+    public void checkLine_invalidProfile_isRejected() {
+        // unknown char
+        assertEquals(ImportReport.RejectedLine.REASON_INVALID_PROFILE,
+                StueckImporter.checkLine("XXXXXXoXXXXXX" + "Lied"));
+        // empty group
+        assertEquals(ImportReport.RejectedLine.REASON_INVALID_PROFILE,
+                StueckImporter.checkLine(NO_STYLE + "Lied"));
+    }
+
+    @Test
+    public void parseLine_readsNameAndProfile() {
+        Stueck stueck = StueckImporter.parseLine(SOME + "Im Abendrot");
+
+        assertNotNull(stueck);
+        assertEquals("Im Abendrot", stueck.getName());
+        assertEquals(Profile.maskFromString(SOME), stueck.getProfileMask());
+        assertNull(StueckImporter.parseLine(NO_STYLE + "Lied"));
+    }
+
+    @Test
+    public void importStream_blankLines_areSkippedWithoutReject() {
+        ImportReport report = importText("\n" + ALL + "Erster\n   \n\t\n" + SOME + "Zweiter\n\n");
+
+        assertEquals(ImportReport.STATE_DONE, report.getState());
+        assertEquals(2, report.getInsertedCount());
+        assertEquals(0, report.getRejectedCount());
+        assertTrue(report.getRejectedLines().isEmpty());
+        assertEquals(2, table.rows().size());
+    }
+
+    @Test
+    public void importStream_rejectedLines_areNumberedFromTheSourceStart() {
+        ImportReport report = importText(ALL + "Erster\n\n" + NO_STYLE + "Falsch\n" + ALL + "\n" + SOME + "Zweiter\n");
+
+        assertEquals(ImportReport.STATE_DONE, report.getState());
+        assertEquals(5, report.getLineCount());
+        assertEquals(2, report.getInsertedCount());
+        assertEquals(2, report.getRejectedCount());
+        List<ImportReport.RejectedLine> rejects = report.getRejectedLines();
+        assertEquals(2, rejects.size());
+        assertEquals(3, rejects.get(0).getLineNumber());
+        assertEquals(ImportReport.RejectedLine.REASON_INVALID_PROFILE, rejects.get(0).getReason());
+        assertEquals(NO_STYLE + "Falsch", rejects.get(0).getText());
+        assertEquals(4, rejects.get(1).getLineNumber());
+        assertEquals(ImportReport.RejectedLine.REASON_NO_NAME, rejects.get(1).getReason());
+    }
+
+    @Test
+    public void importStream_modeAdd_skipsExistingNames() {
+        table.add("Erster", Profile.ALL_MASK);
+
+        ImportReport report = importText(ALL + "Erster\n" + SOME + "Zweiter\n");
+
+        assertEquals(1, report.getInsertedCount());
+        assertEquals(1, report.getDuplicateCount());
+        assertEquals(DAY, table.get("Zweiter").updateDay);
+        assertEquals(Stueck.UNKNOWN_DAY, table.get("Erster").updateDay);
+    }
+
+    @Test
+    public void importStream_modeSync_updatesOnlyTheChangedProfiles() {
+        int unchangedId = table.add("Gleich", Profile.maskFromString(ALL));
+        int changedId = table.add("Anders", Profile.maskFromString(ALL));
+        loadBuckets();
+
+        ImportReport report = importText(ALL + "Gleich\n" + SOME + "Anders\n" + SOME + "Neu\n",
+                StueckImporter.MODE_SYNC);
+
+        assertEquals(ImportReport.STATE_DONE, report.getState());
+        assertEquals(1, report.getInsertedCount());
+        assertEquals(1, report.getUpdatedCount());
+        assertEquals(1, report.getDuplicateCount());
+        assertEquals(0, report.getDeletedCount());
+        assertEquals(1, table.updateCount());
+        assertEquals(Stueck.UNKNOWN_DAY, table.get("Gleich").updateDay);
+        assertEquals(Profile.maskFromString(SOME), table.get("Anders").mask);
+        assertEquals(DAY, table.get("Anders").updateDay);
+        // the buckets follow the new profiles
+        int[] matchingSome = buckets.idsMatching(Profile.of(Profile.maskFromString(SOME)).compile());
+        assertArrayEquals(new int[]{unchangedId, changedId, table.get("Neu").id}, matchingSome);
+        int[] matchingOnlyAll = buckets.idsMatching(Profile.of(Profile.maskFromString("YXYYXYYXYYYYY")).compile());
+        assertArrayEquals(new int[]{unchangedId}, matchingOnlyAll);
+    }
+
+    @Test
+    public void importStream_modeSync_sameSourceTwice_writesNothingTheSecondTime() {
+        String text = ALL + "Erster\n" + SOME + "Zweiter\n";
+        importText(text, StueckImporter.MODE_SYNC);
+
+        ImportReport report = importText(text, StueckImporter.MODE_SYNC);
+
+        assertEquals(0, report.getInsertedCount());
+        assertEquals(0, report.getUpdatedCount());
+        assertEquals(2, report.getDuplicateCount());
+        assertEquals(0, table.updateCount());
+    }
+
+    @Test
+    public void importStream_modeSync_repeatedName_keepsTheLastProfile() {
+        table.add("Lied", Profile.maskFromString(ALL));
+
+        ImportReport report = importText(SOME + "Lied\n" + ALL + "Lied\n" + SOME + "Lied\n",
+                StueckImporter.MODE_SYNC);
+
+        // only the last line is synced, the previous ones are duplicates
+        assertEquals(1, report.getUpdatedCount());
+        assertEquals(2, report.getDuplicateCount());
+        assertEquals(1, table.updateCount());
+        assertEquals(Profile.maskFromString(SOME), table.get("Lied").mask);
+    }
+
+    @Test
+    public void importStream_modeSync_repeatedNewName_keepsTheLastProfile() {
+        loadBuckets();
+
+        ImportReport report = importText(ALL + "Neu\n" + SOME + "Neu\n", StueckImporter.MODE_SYNC);
+
+        assertEquals(1, report.getInsertedCount());
+        assertEquals(1, report.getDuplicateCount());
+        assertEquals(0, report.getUpdatedCount());
+        assertEquals(1, table.rows().size());
+        assertEquals(Profile.maskFromString(SOME), table.get("Neu").mask);
+        assertArrayEquals(new int[]{table.get("Neu").id},
+                buckets.idsMatching(Profile.of(Profile.maskFromString(SOME)).compile()));
+    }
+
+    @Test
+    public void importStream_modeSync_looksUpMoreNamesThanTheQueryArgs() {
+        int count = 3 * StueckImporter.MAX_QUERY_ARGS + 7;
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            table.add("Stück " + i, Profile.maskFromString(ALL));
+            // every third profile changes
+            text.append((i % 3 == 0) ? SOME : ALL).append("Stück ").append(i).append('\n');
+        }
+
+        ImportReport report = importText(text.toString(), StueckImporter.MODE_SYNC);
+
+        assertEquals(0, report.getInsertedCount());
+        assertEquals((count + 2) / 3, report.getUpdatedCount());
+        assertEquals(count - (count + 2) / 3, report.getDuplicateCount());
+        assertEquals(count, table.rows().size());
+    }
+
+    @Test
+    public void importStream_modeSyncDelete_deletesTheAbsentNames() {
+        int keptId = table.add("Bleibt", Profile.maskFromString(ALL));
+        table.add("Weg", Profile.maskFromString(ALL));
+        int changedId = table.add("Geändert", Profile.maskFromString(ALL));
+        loadBuckets();
+
+        ImportReport report = importText(ALL + "Bleibt\n" + SOME + "Geändert\n" + SOME + "Neu\n",
+                StueckImporter.MODE_SYNC_DELETE);
+
+        assertEquals(ImportReport.STATE_DONE, report.getState());
+        assertEquals(1, report.getInsertedCount());
+        assertEquals(1, report.getUpdatedCount());
+        assertEquals(1, report.getDuplicateCount());
+        assertEquals(1, report.getDeletedCount());
+        assertNull(table.get("Weg"));
+        assertEquals(3, table.rows().size());
+        assertArrayEquals(new int[]{keptId, changedId, table.get("Neu").id},
+                buckets.idsMatching(Profile.of(Profile.ALL_MASK).compile()));
+    }
+
+    @Test
+    public void importStream_modeSyncDelete_sourceWithoutValidLine_deletesNothing() {
+        table.add("Erster", Profile.maskFromString(ALL));
+        table.add("Zweiter", Profile.maskFromString(ALL));
+
+        ImportReport report = importText(NO_STYLE + "Falsch\n\n", StueckImporter.MODE_SYNC_DELETE);
+
+        assertEquals(ImportReport.STATE_DONE, report.getState());
+        assertEquals(1, report.getRejectedCount());
+        assertEquals(0, report.getDeletedCount());
+        assertEquals(2, table.rows().size());
+    }
+
+    private ImportReport importText(String text) {
+        return importText(text, StueckImporter.MODE_ADD);
+    }
+
+    @Test
+    public void importStream_softDeletedNameInTheSource_isPurgedAndImported() {
+        int deletedId = table.add("Gelöscht", Profile.maskFromString(ALL));
+        table.softDelete(deletedId);
+
+        ImportReport report = importText(SOME + "Gelöscht\n", StueckImporter.MODE_SYNC);
+
+        assertEquals(1, report.getInsertedCount());
+        FakeStueckTable.Row row = table.get("Gelöscht");
+        assertNotEquals(deletedId, row.id);
+        assertFalse(row.deleted);
+        assertEquals(Profile.maskFromString(SOME), row.mask);
+        assertFalse(table.isJournaled(deletedId));
+    }
+
+    @Test
+    public void importStream_softDeletedNameAbsentFromTheSource_canStillBeUndone() {
+        int deletedId = table.add("Gelöscht", Profile.maskFromString(ALL));
+        table.softDelete(deletedId);
+        table.add("Bleibt", Profile.maskFromString(ALL));
+
+        ImportReport report = importText(ALL + "Bleibt\n" + SOME + "Neu\n", StueckImporter.MODE_SYNC_DELETE);
+
+        assertEquals(1, report.getInsertedCount());
+        assertEquals(0, report.getDeletedCount());
+        assertTrue(table.get("Gelöscht").deleted);
+        assertTrue(table.isJournaled(deletedId));
+    }
+
+    @Test
+    public void importStream_cancelled_keepsTheCommittedChunks() {
+        StringBuilder text = new StringBuilder();
+        int count = 0;
+        while (text.length() < 3 * StueckImporter.CHUNK_BYTES) {
+            text.append(ALL).append("Stück ").append(++count).append('\n');
+        }
+        byte[] bytes = text.toString().getBytes(StandardCharsets.ISO_8859_1);
+        AtomicBoolean cancelled = new AtomicBoolean();
+
+        // cancelled once the first chunk is committed
+        ImportReport report = importer.importStream(new ByteArrayInputStream(bytes), bytes.length,
+                StueckImporter.MODE_ADD, DAY, cancelled, progress -> {
+                    if (progress.getLineCount() > 0) cancelled.set(true);
+                });
+
+        assertEquals(ImportReport.STATE_CANCELLED, report.getState());
+        assertTrue(report.getInsertedCount() > 0);
+        assertTrue(report.getInsertedCount() < count);
+        assertEquals(report.getInsertedCount(), table.rows().size());
+        assertEquals("Stück 1", table.rows().get(0).name);
+    }
+
+    @Test
+    public void importStream_modeSyncDelete_keepsTheRowsInsertedDuringTheImport() {
+        table.add("Weg", Profile.maskFromString(ALL));
+        byte[] bytes = (ALL + "Bleibt\n").getBytes(StandardCharsets.ISO_8859_1);
+
+        // the user inserts a row between two chunk transactions
+        ImportReport report = importer.importStream(new ByteArrayInputStream(bytes), bytes.length,
+                StueckImporter.MODE_SYNC_DELETE, DAY, new AtomicBoolean(), progress -> {
+                    if ((progress.getLineCount() > 0) && (table.get("Benutzer") == null))
+                        table.add("Benutzer", Profile.maskFromString(SOME));
+                });
+
+        assertEquals(ImportReport.STATE_DONE, report.getState());
+        assertEquals(1, report.getDeletedCount());
+        assertNull(table.get("Weg"));
+        assertNotNull(table.get("Bleibt"));
+        assertNotNull(table.get("Benutzer"));
+    }
+
+    @Test
+    public void importStream_gzipSource_isDecompressed() throws IOException {
+        String text = ALL + "Erlkönig\n" + SOME + "Im Abendrot\n";
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(text.getBytes(StandardCharsets.ISO_8859_1));
+        }
+        byte[] bytes = compressed.toByteArray();
+
+        ImportReport report = importer.importStream(new ByteArrayInputStream(bytes), bytes.length,
+                StueckImporter.MODE_ADD, DAY, new AtomicBoolean(), null);
+
+        assertEquals(ImportReport.STATE_DONE, report.getState());
+        assertEquals(2, report.getInsertedCount());
+        assertEquals(0, report.getRejectedCount());
+        assertNotNull(table.get("Erlkönig"));
+        // the stored bytes are counted, not the decompressed ones
+        assertEquals(bytes.length, report.getBytesRead());
+    }
+
+    @Test
+    public void importStream_sourceShorterThanTheGzipMagic_isReadAsText() {
+        ImportReport report = importText("X");
+
+        assertEquals(ImportReport.STATE_DONE, report.getState());
+        assertEquals(1, report.getLineCount());
+        assertEquals(1, report.getRejectedCount());
+    }
+
+    @Test
+    public void importStream_sourceOfSeveralChunks_importsAllLinesInOrder() {
+        StringBuilder text = new StringBuilder();
+        int count = 0;
+        while (text.length() < 3 * StueckImporter.CHUNK_BYTES) {
+            text.append(ALL).append("Stück ").append(++count).append('\n');
+        }
+        // a rejected line in the last chunk
+        text.append(NO_STYLE).append("Falsch\n");
+        text.append(SOME).append("Letzter");
+
+        List<ImportReport> progress = new ArrayList<>();
+        byte[] bytes = text.toString().getBytes(StandardCharsets.ISO_8859_1);
+        ImportReport report = importer.importStream(new ByteArrayInputStream(bytes), bytes.length,
+                StueckImporter.MODE_ADD, DAY, new AtomicBoolean(), progress::add);
+
+        assertEquals(ImportReport.STATE_DONE, report.getState());
+        assertEquals(count + 2, report.getLineCount());
+        assertEquals(count + 1, report.getInsertedCount());
+        assertEquals(1, report.getRejectedCount());
+        assertEquals(count + 1, report.getRejectedLines().get(0).getLineNumber());
+        assertEquals(bytes.length, report.getBytesRead());
+        // inserted in the order of the source, the last line having no line end
+        List<FakeStueckTable.Row> rows = table.rows();
+        for (int i = 0; i < count; i++) assertEquals("Stück " + (i + 1), rows.get(i).name);
+        assertEquals("Letzter", rows.get(count).name);
+        // a report at the start, then one per chunk
+        assertTrue(progress.size() >= 4);
+        for (int i = 1; i < progress.size(); i++)
+            assertTrue(progress.get(i).getLineCount() >= progress.get(i - 1).getLineCount());
+    }
+
+    @Test
+    public void importStream_lineLongerThanAChunk_isReadWhole() {
+        char[] chars = new char[StueckImporter.CHUNK_BYTES * 5 / 2];
+        Arrays.fill(chars, 'a');
+        String longName = new String(chars);
+
+        ImportReport report = importText(ALL + "Vorher\n" + SOME + longName + "\n" + ALL + "Nachher\n");
+
+        assertEquals(ImportReport.STATE_DONE, report.getState());
+        assertEquals(3, report.getLineCount());
+        assertEquals(3, report.getInsertedCount());
+        assertEquals(Profile.maskFromString(SOME), table.get(longName).mask);
+        assertNotNull(table.get("Nachher"));
+    }
+
+    @Test
+    public void importStream_crlfLineEnds_areRemovedFromTheNames() {
+        ImportReport report = importText(ALL + "Erster\r\n\r\n" + SOME + "Zweiter\r\n");
+
+        assertEquals(2, report.getInsertedCount());
+        assertEquals(0, report.getRejectedCount());
+        assertNotNull(table.get("Erster"));
+        assertNotNull(table.get("Zweiter"));
+    }
+
+    private void loadBuckets() {
+        buckets.load(table.dao().getIdsAndMasks());
+    }
+
+    private ImportReport importText(String text, int mode) {
+        byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+        return importer.importStream(new ByteArrayInputStream(bytes), bytes.length, mode, DAY,
+                new AtomicBoolean(), null);
+    }
+}
@@ -0,0 +1,58 @@
+package com.technoprimates.captain.db;
+
+import android.database.Cursor;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds in-memory cursors for the local unit tests, the Android cursors being unavailable on the JVM.
+ * Only the methods read by the db classes are implemented : moveToNext, getInt, getLong, getString, isNull,
+ * getCount and close.
+ */
+final class TestCursors {
+
+    private TestCursors() { }
+
+    /**
+     * @param rows  The rows, each holding the values of the columns
+     * @return A cursor over the rows, before the first row
+     */
+    static Cursor of(List<Object[]> rows) {
+        final List<Object[]> copy = new ArrayList<>(rows);
+        final int[] position = {-1};
+        return (Cursor) Proxy.newProxyInstance(Cursor.class.getClassLoader(), new Class<?>[]{Cursor.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "moveToNext":
+                            return ++position[0] < copy.size();
+                        case "getInt":
+                            return ((Number) copy.get(position[0])[(int) args[0]]).intValue();
+                        case "getLong":
+                            return ((Number) copy.get(position[0])[(int) args[0]]).longValue();
+                        case "getString":
+                            Object value = copy.get(position[0])[(int) args[0]];
+                            return (value == null) ? null : value.toString();
+                        case "isNull":
+                            return copy.get(position[0])[(int) args[0]] == null;
+                        case "getCount":
+                            return copy.size();
+                        case "close":
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    /**
+     * @param rows  The rows, each holding the values of the columns
+     * @return A cursor over the rows, before the first row
+     */
+    static Cursor of(Object[]... rows) {
+        List<Object[]> list = new ArrayList<>();
+        for (Object[] row : rows) list.add(row);
+        return of(list);
+    }
+}
@@ -0,0 +1,192 @@
+package com.technoprimates.captain.draw;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of DrawPool, without and with a window of excluded ids.
+ */
+public class DrawPoolTest {
+
+    private static final long SEED = 42;
+
+    @Test
+    public void draw_withoutWindow_drawsEachIdOnce() {
+        DrawPool pool = new DrawPool(DrawPool.NO_WINDOW, SEED);
+        for (int id = 1; id <= 100; id++) pool.add(id, 1);
+
+        Set<Integer> drawn = new HashSet<>();
+        for (int i = 0; i < 100; i++) assertTrue(drawn.add(pool.draw()));
+
+        assertEquals(100, drawn.size());
+        assertEquals(DrawStrategy.NO_ID, pool.draw());
+        assertEquals(0, pool.remaining());
+        assertEquals(100, pool.size());
+    }
+
+    @Test
+    public void rewind_makesAllIdsDrawable() {
+        DrawPool pool = new DrawPool(DrawPool.NO_WINDOW, SEED);
+        for (int id = 1; id <= 10; id++) pool.add(id, 1);
+        for (int i = 0; i < 10; i++) pool.draw();
+
+        pool.rewind();
+
+        assertEquals(10, pool.remaining());
+        Set<Integer> drawn = new HashSet<>();
+        for (int i = 0; i < 10; i++) drawn.add(pool.draw());
+        assertEquals(10, drawn.size());
+    }
+
+    @Test
+    public void add_existingId_isIgnored() {
+        DrawPool pool = new DrawPool();
+        pool.add(7, 1);
+        pool.add(7, 1);
+
+        assertEquals(1, pool.size());
+        assertEquals(7, pool.draw());
+        assertEquals(DrawStrategy.NO_ID, pool.draw());
+    }
+
+    @Test
+    public void add_afterDraws_isDrawable() {
+        DrawPool pool = new DrawPool(DrawPool.NO_WINDOW, SEED);
+        for (int id = 1; id <= 5; id++) pool.add(id, 1);
+        for (int i = 0; i < 3; i++) pool.draw();
+
+        pool.add(6, 1);
+
+        assertEquals(3, pool.remaining());
+        assertEquals(6, pool.size());
+        Set<Integer> drawn = new HashSet<>();
+        for (int i = 0; i < 3; i++) drawn.add(pool.draw());
+        assertTrue(drawn.contains(6));
+        assertEquals(DrawStrategy.NO_ID, pool.draw());
+    }
+
+    @Test
+    public void remove_drawableAndDrawnIds() {
+        DrawPool pool = new DrawPool(DrawPool.NO_WINDOW, SEED);
+        for (int id = 1; id <= 10; id++) pool.add(id, 1);
+        int drawnId = pool.draw();
+        int drawableId = (drawnId == 1) ? 2 : 1;
+
+        pool.remove(drawnId);
+        pool.remove(drawableId);
+        pool.remove(99);
+
+        assertEquals(8, pool.size());
+        assertEquals(8, pool.remaining());
+        Set<Integer> drawn = new HashSet<>();
+        for (int i = 0; i < 8; i++) drawn.add(pool.draw());
+        assertFalse(drawn.contains(drawnId));
+        assertFalse(drawn.contains(drawableId));
+        assertEquals(8, drawn.size());
+        assertEquals(DrawStrategy.NO_ID, pool.draw());
+    }
+
+    @Test
+    public void exclude_removesIdFromNextDraws() {
+        DrawPool pool = new DrawPool(DrawPool.NO_WINDOW, SEED);
+        for (int id = 1; id <= 3; id++) pool.add(id, 1);
+
+        assertTrue(pool.exclude(2));
+        assertTrue(pool.exclude(2));
+        assertFalse(pool.exclude(4));
+
+        assertEquals(2, pool.remaining());
+        Set<Integer> drawn = new HashSet<>();
+        drawn.add(pool.draw());
+        drawn.add(pool.draw());
+        assertFalse(drawn.contains(2));
+    }
+
+    @Test
+    public void window_excludesLastDrawnIds() {
+        int window = 4;
+        DrawPool pool = new DrawPool(window, SEED);
+        for (int id = 1; id <= 10; id++) pool.add(id, 1);
+
+        Deque<Integer> recent = new ArrayDeque<>();
+        for (int i = 0; i < 1000; i++) {
+            int id = pool.draw();
+            assertNotEquals(DrawStrategy.NO_ID, id);
+            assertFalse("id " + id + " repeated within the window", recent.contains(id));
+            recent.addLast(id);
+            if (recent.size() > window) recent.removeFirst();
+            assertEquals(10 - recent.size(), pool.remaining());
+        }
+    }
+
+    @Test
+    public void window_largerThanPool_cyclesThroughIds() {
+        DrawPool pool = new DrawPool(5, SEED);
+        for (int id = 1; id <= 3; id++) pool.add(id, 1);
+
+        int[] draws = new int[30];
+        for (int i = 0; i < draws.length; i++) draws[i] = pool.draw();
+
+        // each id is drawn again only once all the others were drawn
+        for (int i = 2; i < draws.length; i++) {
+            assertNotEquals(DrawStrategy.NO_ID, draws[i]);
+            assertNotEquals(draws[i], draws[i - 1]);
+            assertNotEquals(draws[i], draws[i - 2]);
+        }
+    }
+
+    @Test
+    public void window_removedIdIsForgotten() {
+        int window = 3;
+        DrawPool pool = new DrawPool(window, SEED);
+        for (int id = 1; id <= 6; id++) pool.add(id, 1);
+        Deque<Integer> recent = new ArrayDeque<>();
+        for (int i = 0; i < window; i++) recent.addLast(pool.draw());
+        int removed = recent.removeFirst();
+
+        pool.remove(removed);
+
+        assertEquals(5, pool.size());
+        assertEquals(5 - recent.size(), pool.remaining());
+        for (int i = 0; i < 500; i++) {
+            int id = pool.draw();
+            assertNotEquals(removed, id);
+            assertFalse("id " + id + " repeated within the window", recent.contains(id));
+            recent.addLast(id);
+            if (recent.size() > window) recent.removeFirst();
+        }
+    }
+
+    @Test
+    public void sameSeed_drawsSameSequence() {
+        DrawPool first = new DrawPool(2, SEED);
+        DrawPool second = new DrawPool(2, SEED);
+        for (int id = 1; id <= 20; id++) {
+            first.add(id, 1);
+            second.add(id, 1);
+        }
+
+        for (int i = 0; i < 100; i++) assertEquals(first.draw(), second.draw());
+    }
+
+    @Test
+    public void clear_removesAllIds() {
+        DrawPool pool = new DrawPool(2, SEED);
+        for (int id = 1; id <= 5; id++) pool.add(id, 1);
+        pool.draw();
+
+        pool.clear();
+
+        assertEquals(0, pool.size());
+        assertEquals(0, pool.remaining());
+        assertEquals(DrawStrategy.NO_ID, pool.draw());
+        pool.add(3, 1);
+        assertEquals(3, pool.draw());
+    }
+}
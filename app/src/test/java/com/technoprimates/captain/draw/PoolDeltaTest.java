@@ -0,0 +1,115 @@
+package com.technoprimates.captain.draw;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of PoolDelta.
+ */
+public class PoolDeltaTest {
+
+    @Test
+    public void compute_findsRemovedAddedAndReweightedIds() {
+        PoolDelta delta = PoolDelta.compute(
+                new int[]{1, 2, 3, 5}, new int[]{1, 1, 1, 1}, 4,
+                new int[]{2, 3, 4, 5}, new int[]{1, 2, 1, 1}, 4);
+
+        RecordingStrategy strategy = new RecordingStrategy();
+        delta.applyTo(strategy);
+
+        assertFalse(delta.isEmpty());
+        assertEquals(2, delta.getRemovedCount());
+        assertEquals(1, delta.getRemovedId(0));
+        assertEquals(3, delta.getRemovedId(1));
+        // the removals come first, so that a reweighted id is added again with its new weight
+        assertEquals(Arrays.asList("remove 1", "remove 3", "add 3:2", "add 4:1"), strategy.calls);
+    }
+
+    @Test
+    public void compute_sameIds_isEmpty() {
+        int[] ids = {1, 4, 9};
+        int[] weights = {1, 2, 3};
+
+        PoolDelta delta = PoolDelta.compute(ids, weights, 3, ids.clone(), weights.clone(), 3);
+
+        assertTrue(delta.isEmpty());
+        assertEquals(0, delta.getRemovedCount());
+    }
+
+    @Test
+    public void compute_fromAndToEmpty() {
+        int[] ids = {2, 3};
+        int[] weights = {1, 1};
+
+        RecordingStrategy strategy = new RecordingStrategy();
+        PoolDelta.compute(new int[0], new int[0], 0, ids, weights, 2).applyTo(strategy);
+        PoolDelta.compute(ids, weights, 2, new int[0], new int[0], 0).applyTo(strategy);
+
+        assertEquals(Arrays.asList("add 2:1", "add 3:1", "remove 2", "remove 3"), strategy.calls);
+    }
+
+    @Test
+    public void compute_onlyReadsCounts() {
+        // the arrays may be longer than the counts, as the filter thread fills oversized arrays
+        PoolDelta delta = PoolDelta.compute(
+                new int[]{1, 2, 99}, new int[]{1, 1, 1}, 2,
+                new int[]{2, 99, 100}, new int[]{1, 1, 1}, 1);
+
+        RecordingStrategy strategy = new RecordingStrategy();
+        delta.applyTo(strategy);
+
+        assertEquals(Arrays.asList("remove 1"), strategy.calls);
+    }
+
+    @Test
+    public void applyTo_turnsOldPoolIntoNewPool() {
+        int[] oldIds = {1, 3, 5, 7, 9};
+        int[] oldWeights = {1, 1, 1, 1, 1};
+        int[] newIds = {2, 3, 4, 9, 10};
+        int[] newWeights = {1, 1, 1, 1, 1};
+        DrawPool pool = new DrawPool(DrawPool.NO_WINDOW, 42);
+        for (int id : oldIds) pool.add(id, 1);
+
+        PoolDelta.compute(oldIds, oldWeights, oldIds.length, newIds, newWeights, newIds.length).applyTo(pool);
+
+        assertEquals(newIds.length, pool.size());
+        int[] drawn = new int[newIds.length];
+        for (int i = 0; i < drawn.length; i++) drawn[i] = pool.draw();
+        Arrays.sort(drawn);
+        assertArrayEquals(newIds, drawn);
+    }
+
+    /* Records the calls made by applyTo */
+    private static class RecordingStrategy implements DrawStrategy {
+        final List<String> calls = new ArrayList<>();
+
+        @Override
+        public void add(int id, int weight) {calls.add("add " + id + ":" + weight);}
+
+        @Override
+        public void remove(int id) {calls.add("remove " + id);}
+
+        @Override
+        public int draw() {return NO_ID;}
+
+        @Override
+        public boolean exclude(int id) {return false;}
+
+        @Override
+        public void rewind() { }
+
+        @Override
+        public void clear() { }
+
+        @Override
+        public int remaining() {return 0;}
+
+        @Override
+        public int size() {return 0;}
+    }
+}
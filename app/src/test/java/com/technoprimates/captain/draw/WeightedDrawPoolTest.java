@@ -0,0 +1,147 @@
+package com.technoprimates.captain.draw;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of WeightedDrawPool : Fenwick tree updates and sampling in proportion to the weights.
+ */
+public class WeightedDrawPoolTest {
+
+    private static final long SEED = 42;
+    private static final int DRAWS = 100_000;
+
+    @Test
+    public void draw_followsWeights() {
+        WeightedDrawPool pool = new WeightedDrawPool(SEED);
+        pool.add(1, 1);
+        pool.add(2, 2);
+        pool.add(3, 7);
+
+        int[] counts = countDraws(pool, 4);
+
+        assertEquals(0.1, counts[1] / (double) DRAWS, 0.01);
+        assertEquals(0.2, counts[2] / (double) DRAWS, 0.01);
+        assertEquals(0.7, counts[3] / (double) DRAWS, 0.01);
+    }
+
+    @Test
+    public void zeroWeights_areNeverDrawn() {
+        WeightedDrawPool pool = new WeightedDrawPool(SEED);
+        pool.add(1, 0);
+        pool.add(2, -3);
+
+        assertEquals(DrawStrategy.NO_ID, pool.draw());
+        assertEquals(0, pool.remaining());
+        assertEquals(2, pool.size());
+
+        pool.add(3, 5);
+        assertEquals(1, pool.remaining());
+        for (int i = 0; i < 100; i++) assertEquals(3, pool.draw());
+    }
+
+    @Test
+    public void remove_movesLastSlotIntoHole() {
+        WeightedDrawPool pool = new WeightedDrawPool(SEED);
+        pool.add(1, 3);
+        pool.add(2, 0);
+        pool.add(3, 0);
+        pool.add(4, 5);
+
+        // the last id takes the slot of the removed first id, with its weight
+        pool.remove(1);
+        assertEquals(3, pool.size());
+        assertEquals(1, pool.remaining());
+        for (int i = 0; i < 100; i++) assertEquals(4, pool.draw());
+
+        pool.remove(4);
+        assertEquals(DrawStrategy.NO_ID, pool.draw());
+        pool.remove(4);
+        assertEquals(2, pool.size());
+    }
+
+    @Test
+    public void remove_redistributesDraws() {
+        WeightedDrawPool pool = new WeightedDrawPool(SEED);
+        pool.add(1, 1);
+        pool.add(2, 8);
+        pool.add(3, 1);
+
+        pool.remove(2);
+        int[] counts = countDraws(pool, 4);
+
+        assertEquals(0, counts[2]);
+        assertEquals(0.5, counts[1] / (double) DRAWS, 0.01);
+        assertEquals(0.5, counts[3] / (double) DRAWS, 0.01);
+    }
+
+    @Test
+    public void grow_keepsWeights() {
+        WeightedDrawPool pool = new WeightedDrawPool(SEED);
+        // beyond the initial capacity, the tree is rebuilt several times
+        for (int id = 0; id < 100; id++) pool.add(id, (id == 20) ? 1 : (id == 90) ? 3 : 0);
+
+        int[] counts = countDraws(pool, 100);
+
+        assertEquals(DRAWS, counts[20] + counts[90]);
+        assertEquals(0.25, counts[20] / (double) DRAWS, 0.01);
+        assertEquals(2, pool.remaining());
+    }
+
+    @Test
+    public void randomUpdates_matchTotals() {
+        WeightedDrawPool pool = new WeightedDrawPool(SEED);
+        int[] weights = new int[64];
+        java.util.SplittableRandom random = new java.util.SplittableRandom(SEED);
+        for (int step = 0; step < 2000; step++) {
+            int id = random.nextInt(weights.length);
+            if (weights[id] > 0) {
+                pool.remove(id);
+                weights[id] = 0;
+            } else {
+                weights[id] = 1 + random.nextInt(10);
+                pool.add(id, weights[id]);
+            }
+        }
+        int positive = 0;
+        for (int weight : weights) if (weight > 0) positive++;
+        assertEquals(positive, pool.remaining());
+
+        // each draw returns an id of the pool
+        for (int i = 0; i < 10_000; i++) assertTrue(weights[pool.draw()] > 0);
+    }
+
+    @Test
+    public void add_existingId_keepsFirstWeight() {
+        WeightedDrawPool pool = new WeightedDrawPool(SEED);
+        pool.add(1, 1);
+        pool.add(1, 100);
+        pool.add(2, 1);
+
+        int[] counts = countDraws(pool, 3);
+
+        assertEquals(0.5, counts[1] / (double) DRAWS, 0.01);
+    }
+
+    @Test
+    public void clear_removesAllIds() {
+        WeightedDrawPool pool = new WeightedDrawPool(SEED);
+        pool.add(1, 1);
+        pool.add(2, 1);
+
+        pool.clear();
+
+        assertEquals(0, pool.size());
+        assertEquals(0, pool.remaining());
+        assertEquals(DrawStrategy.NO_ID, pool.draw());
+        pool.add(2, 4);
+        assertEquals(2, pool.draw());
+    }
+
+    private static int[] countDraws(WeightedDrawPool pool, int maxId) {
+        int[] counts = new int[maxId];
+        for (int i = 0; i < DRAWS; i++) counts[pool.draw()]++;
+        return counts;
+    }
+}